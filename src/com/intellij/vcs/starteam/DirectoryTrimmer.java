@@ -0,0 +1,79 @@
+package com.intellij.vcs.starteam;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the total size of the files in a directory under a limit by deleting
+ * the files least recently modified; files read from the store are expected
+ * to be touched, so that the least recently used ones go first.
+ */
+class DirectoryTrimmer
+{
+  private DirectoryTrimmer()
+  {
+  }
+
+  /**
+   * Delete the oldest files of the directory until their total size is no
+   * more than the limit. Subdirectories are left alone.
+   * @return number of the files deleted.
+   */
+  public static int trim( File dir, long limit )
+  {
+    File[] files = dir.listFiles();
+    if( files == null )
+      return 0;
+
+    long total = 0;
+    for( File file : files )
+    {
+      if( file.isFile() )
+        total += file.length();
+    }
+    if( total <= limit )
+      return 0;
+
+    final long[] stamps = new long[ files.length ];
+    Integer[] order = new Integer[ files.length ];
+    for( int i = 0; i < files.length; i++ )
+    {
+      //  Read once - the stamps of the files may change while sorting.
+      stamps[ i ] = files[ i ].lastModified();
+      order[ i ] = i;
+    }
+    Arrays.sort( order, new Comparator<Integer>()
+    {
+      public int compare( Integer o1, Integer o2 )
+      {
+        long t1 = stamps[ o1 ], t2 = stamps[ o2 ];
+        return t1 < t2 ? -1 : ( t1 > t2 ? 1 : 0 );
+      }
+    });
+
+    int deleted = 0;
+    for( int i = 0; i < order.length && total > limit; i++ )
+    {
+      File file = files[ order[ i ] ];
+      if( !file.isFile() )
+        continue;
+
+      long length = file.length();
+      if( file.delete() )
+      {
+        total -= length;
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Mark the file as used just now.
+   */
+  public static void touch( File file )
+  {
+    file.setLastModified( System.currentTimeMillis() );
+  }
+}
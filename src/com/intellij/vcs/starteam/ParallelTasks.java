@@ -0,0 +1,170 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a bounded set of worker threads and waits for all of them,
+ * including the tasks submitted by other tasks while running. With a single
+ * thread requested, tasks are run directly on the submitting thread.
+ * <p/>
+ * The first unchecked exception thrown by a task stops the processing of the
+ * remaining tasks and is rethrown from {@link #await}.
+ */
+class ParallelTasks
+{
+  @Nullable private final ExecutorService myExecutor;
+
+  private final Object myLock = new Object();
+  private int myPending = 0;
+  private RuntimeException myFailure;
+  private Error myError;
+  private volatile boolean myCancelled = false;
+
+  public ParallelTasks( @NonNls final String name, int threads )
+  {
+    if( threads > 1 )
+    {
+      final AtomicInteger counter = new AtomicInteger();
+      myExecutor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+      {
+        public Thread newThread( Runnable r )
+        {
+          Thread thread = new Thread( r, name + " " + counter.incrementAndGet() );
+          thread.setDaemon( true );
+          return thread;
+        }
+      });
+    }
+    else
+    {
+      myExecutor = null;
+    }
+  }
+
+  public void submit( final Runnable task )
+  {
+    if( myExecutor == null )
+    {
+      if( !isStopped() )
+        task.run();
+      return;
+    }
+
+    synchronized( myLock )
+    {
+      myPending++;
+    }
+    myExecutor.execute( new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          if( !isStopped() )
+            task.run();
+        }
+        catch( RuntimeException e )
+        {
+          synchronized( myLock ) {  if( myFailure == null ) myFailure = e;  }
+        }
+        catch( Error e )
+        {
+          synchronized( myLock ) {  if( myError == null ) myError = e;  }
+        }
+        finally
+        {
+          synchronized( myLock )
+          {
+            myPending--;
+            myLock.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Wait until all submitted tasks are finished and release the worker threads.
+   * @throws ProcessCanceledException if the indicator is cancelled meanwhile.
+   */
+  public void await( @Nullable ProgressIndicator indicator )
+  {
+    await( indicator, null );
+  }
+
+  /**
+   * @param poll run on the waiting thread every time it wakes up, e.g. to
+   *             report the progress collected by the tasks.
+   */
+  public void await( @Nullable ProgressIndicator indicator, @Nullable Runnable poll )
+  {
+    try
+    {
+      if( myExecutor != null )
+      {
+        while( true )
+        {
+          synchronized( myLock )
+          {
+            if( myPending == 0 )
+              break;
+            if( indicator != null && indicator.isCanceled() )
+            {
+              myCancelled = true;
+              throw new ProcessCanceledException();
+            }
+            try
+            {
+              myLock.wait( 100 );
+            }
+            catch( InterruptedException e )
+            {
+              myCancelled = true;
+              throw new ProcessCanceledException();
+            }
+          }
+          if( poll != null )
+            poll.run();
+        }
+      }
+
+      synchronized( myLock )
+      {
+        if( myError != null ) throw myError;
+        if( myFailure != null ) throw myFailure;
+      }
+    }
+    finally
+    {
+      shutdown();
+    }
+  }
+
+  /**
+   * Release the worker threads; tasks which have not started yet are dropped.
+   */
+  public void shutdown()
+  {
+    myCancelled = true;
+    if( myExecutor != null )
+      myExecutor.shutdownNow();
+  }
+
+  private boolean isStopped()
+  {
+    if( myCancelled )
+      return true;
+    synchronized( myLock )
+    {
+      return myFailure != null || myError != null;
+    }
+  }
+}
@@ -6,6 +6,8 @@ import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+
 /**
 * Created by IntelliJ IDEA.
 * User: lloix
@@ -25,13 +27,27 @@ class STContentRevision implements ContentRevision
 
   public String getContent() throws VcsException
   {
-    if( content == null )
+    if( content != null )
+      return content;
+
+    StarteamContent stContent = host.loadFileContent( StarteamChangeProvider.getSTCanonicPath( revisionPath.getPath() ) );
+    try
     {
-      byte[] byteContent = host.getFileContent( StarteamChangeProvider.getSTCanonicPath( revisionPath.getPath() ) );
-      content = new String( byteContent );
-    }
+      String text = stContent.loadText( revisionPath.getCharset() );
 
-    return content;
+      //  Do not pin the text of large files, the caller holds it as long as needed.
+      if( stContent.isInMemory() )
+        content = text;
+      return text;
+    }
+    catch( IOException e )
+    {
+      throw new VcsException( e );
+    }
+    finally
+    {
+      stContent.dispose();
+    }
   }
 
   @NotNull public VcsRevisionNumber getRevisionNumber(){  return VcsRevisionNumber.NULL;  }
@@ -0,0 +1,96 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.starbase.starteam.Status;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Guesses the status of working files from the time stamps of the entries in
+ * the per-folder StarTeam status repository (the ".sbas" directories) without
+ * contacting the server. The entries themselves are not parsed - their format
+ * is not documented.
+ * <p/>
+ * An entry named after the working file is written whenever StarTeam learns
+ * the state of the file (checkout, checkin, update), thus a working file which
+ * is not newer than its entry is considered current. Anything the heuristic
+ * cannot decide is reported as {@link Status#UNKNOWN}, and the caller has to
+ * ask the server.
+ * <p/>
+ * An entry rewritten after the file was edited hides the edit, so the heuristic
+ * is used only when enabled by {@link StarteamConfiguration#READ_LOCAL_STATUS_REPOSITORY}.
+ */
+class SbasTimestampHeuristic
+{
+  private static final Map<String, Long> NO_REPOSITORY = Collections.emptyMap();
+
+  private final Map<String, Map<String, Long>> myRecords = new ConcurrentHashMap<String, Map<String, Long>>();
+
+  /**
+   * @return one of {@link Status#CURRENT}, {@link Status#MODIFIED},
+   *         {@link Status#MISSING}, {@link Status#NEW} or {@link Status#UNKNOWN}
+   *         if the folder has no local status repository.
+   */
+  public int getStatus( File file )
+  {
+    File dir = file.getParentFile();
+    if( dir == null )
+      return Status.UNKNOWN;
+
+    Map<String, Long> records = getRecords( dir );
+    if( records == null )
+      return Status.UNKNOWN;
+
+    String name = normalizeName( file.getName() );
+    Long recorded = records.get( name );
+    if( recorded == null )
+      return file.exists() ? Status.NEW : Status.UNKNOWN;
+
+    if( !file.exists() )
+      return Status.MISSING;
+
+    return file.lastModified() <= recorded.longValue() ? Status.CURRENT : Status.MODIFIED;
+  }
+
+  /**
+   * @return time stamps of the status repository entries keyed by their names,
+   *         or null if the folder has no status repository.
+   */
+  private Map<String, Long> getRecords( File dir )
+  {
+    Map<String, Long> records = myRecords.get( dir.getPath() );
+    if( records == null )
+    {
+      records = readRecords( dir );
+      myRecords.put( dir.getPath(), records );
+    }
+    return records == NO_REPOSITORY ? null : records;
+  }
+
+  private static Map<String, Long> readRecords( File dir )
+  {
+    File repository = new File( dir, StarteamVcs.VERSIONED_FOLDER_SIG );
+    File[] entries = repository.listFiles();
+    if( entries == null )
+      return NO_REPOSITORY;
+
+    Map<String, Long> records = new HashMap<String, Long>( entries.length * 2 );
+    for( File entry : entries )
+    {
+      if( !entry.isFile() )
+        continue;
+
+      records.put( normalizeName( entry.getName() ), Long.valueOf( entry.lastModified() ) );
+    }
+    return records;
+  }
+
+  private static String normalizeName( String name )
+  {
+    return SystemInfo.isFileSystemCaseSensitive ? name : name.toLowerCase();
+  }
+}
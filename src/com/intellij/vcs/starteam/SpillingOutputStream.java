@@ -0,0 +1,99 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+
+/**
+ * Collects the content written to it in memory until it grows over the
+ * threshold, and in a temporary file from then on.
+ */
+class SpillingOutputStream extends OutputStream
+{
+  @NonNls private static final String TEMP_PREFIX = "starteam";
+
+  private final long   myThreshold;
+  private final String mySuffix;
+
+  private ByteArrayOutputStream myBuffer = new ByteArrayOutputStream();
+  private File         myFile;
+  private OutputStream myFileStream;
+  private boolean      myClosed = false;
+
+  /**
+   * @param suffix suffix of the temporary file, e.g. the extension of the
+   *               original file to keep its file type.
+   */
+  public SpillingOutputStream( long threshold, @Nullable @NonNls String suffix )
+  {
+    myThreshold = threshold;
+    mySuffix = suffix;
+  }
+
+  public void write( int b ) throws IOException
+  {
+    getStream( 1 ).write( b );
+  }
+
+  public void write( byte[] b, int off, int len ) throws IOException
+  {
+    getStream( len ).write( b, off, len );
+  }
+
+  public void flush() throws IOException
+  {
+    if( myFileStream != null )
+      myFileStream.flush();
+  }
+
+  public void close() throws IOException
+  {
+    if( !myClosed && myFileStream != null )
+      myFileStream.close();
+    myClosed = true;
+  }
+
+  /**
+   * Close the stream and return what was written to it.
+   */
+  public StarteamContent getContent() throws IOException
+  {
+    close();
+    return myFile != null ? new StarteamContent( myFile ) : new StarteamContent( myBuffer.toByteArray() );
+  }
+
+  /**
+   * Close the stream and remove the temporary file, if any.
+   */
+  public void discard()
+  {
+    try
+    {
+      close();
+    }
+    catch( IOException e )
+    {
+      //  Nothing to do - the file is removed anyway.
+    }
+    if( myFile != null )
+      myFile.delete();
+  }
+
+  private OutputStream getStream( int toWrite ) throws IOException
+  {
+    if( myClosed )
+      throw new IOException( "Stream closed" );
+
+    if( myFileStream == null && myBuffer.size() + (long)toWrite > myThreshold )
+    {
+      myFile = FileUtil.createTempFile( TEMP_PREFIX, mySuffix );
+      myFile.deleteOnExit();
+      myFileStream = new BufferedOutputStream( new FileOutputStream( myFile ) );
+      myBuffer.writeTo( myFileStream );
+      myBuffer = null;
+    }
+    return myFileStream != null ? myFileStream : myBuffer;
+  }
+}
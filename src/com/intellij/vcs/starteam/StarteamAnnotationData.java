@@ -0,0 +1,103 @@
+package com.intellij.vcs.starteam;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Result of annotating a file revision: its content and, for every line, the
+ * revision which introduced the line.
+ */
+class StarteamAnnotationData
+{
+  private static final int VERSION = 1;
+
+  public final String     content;
+  public final int        annotatedRevision;
+  public final Revision[] revisions;
+
+  /** Index in {@link #revisions} for every line of the content. */
+  public final int[]      lineRevisions;
+
+  public StarteamAnnotationData( String content, int annotatedRevision, Revision[] revisions, int[] lineRevisions )
+  {
+    this.content = content;
+    this.annotatedRevision = annotatedRevision;
+    this.revisions = revisions;
+    this.lineRevisions = lineRevisions;
+  }
+
+  public void write( DataOutput out ) throws IOException
+  {
+    out.writeInt( VERSION );
+    writeString( out, content );
+    out.writeInt( annotatedRevision );
+    out.writeInt( revisions.length );
+    for( Revision revision : revisions )
+    {
+      out.writeInt( revision.number );
+      writeString( out, revision.author );
+      out.writeLong( revision.date.getTime() );
+      writeString( out, revision.comment );
+    }
+    out.writeInt( lineRevisions.length );
+    for( int index : lineRevisions )
+      out.writeInt( index );
+  }
+
+  /**
+   * @throws IOException if the data is damaged or written in another format.
+   */
+  public static StarteamAnnotationData read( DataInput in ) throws IOException
+  {
+    if( in.readInt() != VERSION )
+      throw new IOException( "Unsupported annotation format" );
+
+    String content = readString( in );
+    int annotatedRevision = in.readInt();
+    Revision[] revisions = new Revision[ in.readInt() ];
+    for( int i = 0; i < revisions.length; i++ )
+      revisions[ i ] = new Revision( in.readInt(), readString( in ), new Date( in.readLong() ), readString( in ) );
+
+    int[] lineRevisions = new int[ in.readInt() ];
+    for( int i = 0; i < lineRevisions.length; i++ )
+    {
+      lineRevisions[ i ] = in.readInt();
+      if( lineRevisions[ i ] < 0 || lineRevisions[ i ] >= revisions.length )
+        throw new IOException( "Damaged annotation data" );
+    }
+    return new StarteamAnnotationData( content, annotatedRevision, revisions, lineRevisions );
+  }
+
+  //  DataOutput.writeUTF is limited to 64K, which is not enough for the content.
+  private static void writeString( DataOutput out, String s ) throws IOException
+  {
+    byte[] bytes = s.getBytes( "UTF-8" );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readString( DataInput in ) throws IOException
+  {
+    byte[] bytes = new byte[ in.readInt() ];
+    in.readFully( bytes );
+    return new String( bytes, "UTF-8" );
+  }
+
+  public static class Revision
+  {
+    public final int    number;
+    public final String author;
+    public final Date   date;
+    public final String comment;
+
+    public Revision( int number, String author, Date date, String comment )
+    {
+      this.number = number;
+      this.author = author;
+      this.date = date;
+      this.comment = comment;
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.annotate.AnnotationProvider;
+import com.intellij.openapi.vcs.annotate.FileAnnotation;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.diff.Diff;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Item;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Annotates a file revision by walking its history newest first: the lines
+ * which a revision adds to its predecessor are attributed to it, and the walk
+ * stops as soon as every line is attributed. The result is stored under the
+ * IDE system directory per item revision, so that a revision is annotated
+ * only once as long as its annotation is among the ones recently used.
+ */
+public class StarteamAnnotationProvider implements AnnotationProvider
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamAnnotationProvider" );
+
+  @NonNls private static final String ANNOTATIONS_DIR = "annotations";
+
+  //  Total size of the stored annotations; the ones least recently used are
+  //  deleted beyond it.
+  private static final long MAX_STORED_SIZE = 32 * 1024 * 1024;
+
+  private final StarteamVcs host;
+
+  public StarteamAnnotationProvider( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  public FileAnnotation annotate( VirtualFile file ) throws VcsException
+  {
+    File item = findFile( file );
+    Item[] history = host.getHistoryCache().getHistory( item );
+    return annotate( file, history, indexOf( history, item.getRevisionNumber() ) );
+  }
+
+  public FileAnnotation annotate( VirtualFile file, VcsFileRevision revision ) throws VcsException
+  {
+    Item[] history = host.getHistoryCache().getHistory( findFile( file ) );
+
+    //  Revision numbers are shown one-based, see StarteamHistoryProvider.
+    int number;
+    try
+    {
+      number = Integer.parseInt( revision.getRevisionNumber().asString() ) - 1;
+    }
+    catch( NumberFormatException e )
+    {
+      throw new VcsException( e );
+    }
+    return annotate( file, history, indexOf( history, number ) );
+  }
+
+  public boolean isAnnotationValid( VcsFileRevision rev )  {  return true;  }
+
+  private FileAnnotation annotate( VirtualFile file, Item[] history, int index ) throws VcsException
+  {
+    java.io.File stored = getStoredFile( history[ index ] );
+    StarteamAnnotationData data = load( stored );
+    if( data == null )
+    {
+      data = compute( file.getCharset(), history, index );
+      save( stored, data );
+      DirectoryTrimmer.trim( stored.getParentFile(), MAX_STORED_SIZE );
+    }
+    else
+    {
+      DirectoryTrimmer.touch( stored );
+    }
+    return new StarteamFileAnnotation( file, data );
+  }
+
+  /**
+   * @param history revisions of the file, newest first.
+   * @param index   index of the annotated revision in the history.
+   */
+  private StarteamAnnotationData compute( final Charset charset, final Item[] history, final int index ) throws VcsException
+  {
+    final String content = loadText( history[ index ], charset );
+    int[] lineRevisions = attributeLines( new RevisionLines()
+    {
+      public int getCount()  {  return history.length - index;  }
+
+      public String[] getLines( int offset ) throws VcsException
+      {
+        ProgressManager.checkCanceled();
+        String text = (offset == 0) ? content : loadText( history[ index + offset ], charset );
+        return LineTokenizer.tokenize( text, false );
+      }
+    });
+
+    //  Every revision which a line is attributed to is stored once, newest
+    //  first, and the lines refer to it by its position.
+    SortedSet<Integer> offsets = new TreeSet<Integer>();
+    for( int offset : lineRevisions )
+      offsets.add( offset );
+
+    Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+    List<StarteamAnnotationData.Revision> revisions = new ArrayList<StarteamAnnotationData.Revision>();
+    for( int offset : offsets )
+    {
+      positions.put( offset, revisions.size() );
+      revisions.add( createRevision( history[ index + offset ] ) );
+    }
+    for( int i = 0; i < lineRevisions.length; i++ )
+      lineRevisions[ i ] = positions.get( lineRevisions[ i ] );
+
+    return new StarteamAnnotationData( content, history[ index ].getRevisionNumber() + 1,
+                                       revisions.toArray( new StarteamAnnotationData.Revision[ revisions.size() ] ),
+                                       lineRevisions );
+  }
+
+  /**
+   * Attribute every line of the newest revision to the revision which has
+   * added it. Older revisions are read only until every line is attributed.
+   * @return for every line of the revision at offset 0, the offset of the
+   *         revision which has added it.
+   */
+  static int[] attributeLines( RevisionLines texts ) throws VcsException
+  {
+    String[] newer = texts.getLines( 0 );
+
+    //  Line of the annotated revision for every line of the revision being
+    //  compared, -1 for the lines which are already attributed.
+    int[] origin = new int[ newer.length ];
+    for( int i = 0; i < origin.length; i++ )
+      origin[ i ] = i;
+
+    int[] lineRevisions = new int[ newer.length ];
+    Arrays.fill( lineRevisions, -1 );
+    int remaining = newer.length;
+
+    int current = 0;
+    for( ; remaining > 0 && current + 1 < texts.getCount(); current++ )
+    {
+      String[] older = texts.getLines( current + 1 );
+      int[] olderOrigin = new int[ older.length ];
+      Arrays.fill( olderOrigin, -1 );
+
+      int o = 0, n = 0;
+      for( Diff.Change change = buildChanges( older, newer ); change != null; change = change.link )
+      {
+        while( n < change.line1 )
+          olderOrigin[ o++ ] = origin[ n++ ];
+
+        for( int k = 0; k < change.inserted; k++, n++ )
+        {
+          if( origin[ n ] >= 0 )
+          {
+            lineRevisions[ origin[ n ] ] = current;
+            remaining--;
+          }
+        }
+        o += change.deleted;
+      }
+      while( n < newer.length )
+        olderOrigin[ o++ ] = origin[ n++ ];
+
+      origin = olderOrigin;
+      newer = older;
+    }
+
+    //  Lines which survived down to the oldest revision walked come from it.
+    if( remaining > 0 )
+    {
+      for( int i = 0; i < lineRevisions.length; i++ )
+      {
+        if( lineRevisions[ i ] < 0 )
+          lineRevisions[ i ] = current;
+      }
+    }
+    return lineRevisions;
+  }
+
+  /**
+   * Lines of the revisions of a file, newest first.
+   */
+  interface RevisionLines
+  {
+    int getCount();
+
+    String[] getLines( int offset ) throws VcsException;
+  }
+
+  private static Diff.Change buildChanges( String[] before, String[] after ) throws VcsException
+  {
+    try
+    {
+      return Diff.buildChanges( before, after );
+    }
+    catch( Exception e )
+    {
+      //  E.g. the files are too big for the diff.
+      throw new VcsException( e );
+    }
+  }
+
+  private String loadText( Item revision, Charset charset ) throws VcsException
+  {
+    return new String( host.loadContentBytes( (File)revision ), charset );
+  }
+
+  private static StarteamAnnotationData.Revision createRevision( Item item )
+  {
+    String author = StarteamUserDirectory.getInstance().getUserName( item.getServer(), item.getModifiedBy() );
+    String comment = item.getComment();
+    return new StarteamAnnotationData.Revision( item.getRevisionNumber() + 1,
+                                                author != null ? author : StarteamBundle.message( "unknown.author.name" ),
+                                                new Date( item.getModifiedTime().getLongValue() ),
+                                                comment != null ? comment : "" );
+  }
+
+  private File findFile( VirtualFile file ) throws VcsException
+  {
+    File item = host.findFile( file.getPath() );
+    if( item == null )
+      throw new VcsException( "Can not find file: " + file.getPath() );
+    return item;
+  }
+
+  private static int indexOf( Item[] history, int revisionNumber ) throws VcsException
+  {
+    for( int i = 0; i < history.length; i++ )
+    {
+      if( history[ i ].getRevisionNumber() == revisionNumber )
+        return i;
+    }
+    throw new VcsException( "Can not find revision " + (revisionNumber + 1) );
+  }
+
+  //---------------------------------------------------------------------------
+  //  Storage of the computed annotations, one file per item revision, up to
+  //  MAX_STORED_SIZE in total.
+  //---------------------------------------------------------------------------
+
+  private java.io.File getStoredFile( Item revision )
+  {
+    java.io.File dir = new java.io.File( host.getSystemDirectory(), ANNOTATIONS_DIR );
+    return new java.io.File( dir, revision.getObjectID() + "_" + revision.getRevisionNumber() );
+  }
+
+  @Nullable
+  private static StarteamAnnotationData load( java.io.File stored )
+  {
+    if( !stored.isFile() )
+      return null;
+
+    try
+    {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( stored ) ) );
+      try
+      {
+        return StarteamAnnotationData.read( in );
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch( IOException e )
+    {
+      //  Damaged or outdated - computed again and overwritten.
+      LOG.debug( e );
+      return null;
+    }
+  }
+
+  private static void save( java.io.File stored, StarteamAnnotationData data )
+  {
+    try
+    {
+      stored.getParentFile().mkdirs();
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( stored ) ) );
+      try
+      {
+        data.write( out );
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch( IOException e )
+    {
+      LOG.debug( e );
+      stored.delete();
+    }
+  }
+}
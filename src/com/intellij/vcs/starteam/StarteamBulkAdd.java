@@ -0,0 +1,344 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.starbase.starteam.Folder;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds many new folders and files at once. Folders are created outermost
+ * first, and the files are then uploaded folder by folder, each folder being
+ * resolved once for all its files.
+ * <p/>
+ * With more than one server session allowed, every depth level of folders
+ * and then the files are handed to {@link StarteamSessionPool} the way
+ * modified files are checked in: one task per parent folder, so that sibling
+ * folders created at the same time never race on the folder list of their
+ * parent. The main session is only refreshed at the end, once per existing
+ * folder which has received new folders or files; the folders created below
+ * them are read afresh on first use.
+ * <p/>
+ * With a single session, everything runs on the calling thread with the main
+ * session, and the file items of every folder are refreshed once after its
+ * files are uploaded.
+ */
+class StarteamBulkAdd
+{
+  //  Number of files uploaded by one pooled task, so that the files of a large
+  //  folder are spread over the sessions.
+  private static final int FILES_PER_TASK = 20;
+
+  private final StarteamVcs host;
+
+  //  Folders created so far keyed by the path, so that their subfolders and
+  //  files are added without resolving the folders in the view again.
+  private final Map<String, Folder> myCreated = new HashMap<String, Folder>();
+
+  //  Paths of the folders created by the pooled tasks, of the folders which
+  //  have received new subfolders and of those which have received new files.
+  private final Set<String> myCreatedPaths = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+  private final Set<String> myParentPaths = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+  private final Set<String> myFilledPaths = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+  public StarteamBulkAdd( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  public void add( Collection<FilePath> folders, Collection<FilePath> files, String comment,
+                   List<VcsException> errors, @Nullable ProgressIndicator progress )
+  {
+    try
+    {
+      host.refreshIfStale();
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+      return;
+    }
+
+    if( folders.size() + files.size() < 2 || host.getConfiguration().SERVER_SESSIONS <= 1 )
+      addSequentially( folders, files, comment, errors, progress );
+    else
+      addConcurrently( folders, files, comment, errors, progress );
+  }
+
+  private void addSequentially( Collection<FilePath> folders, Collection<FilePath> files, String comment,
+                                List<VcsException> errors, @Nullable ProgressIndicator progress )
+  {
+    for( List<FilePath> level : groupByDepth( folders ) )
+    {
+      for( FilePath folder : level )
+      {
+        if( progress != null )
+          progress.checkCanceled();
+        addFolder( folder, errors );
+      }
+    }
+
+    for( Map.Entry<String, List<FilePath>> entry : groupByParent( files ).entrySet() )
+    {
+      if( progress != null )
+        progress.checkCanceled();
+      addFiles( entry.getKey(), entry.getValue(), comment, errors );
+    }
+  }
+
+  private void addConcurrently( Collection<FilePath> folders, Collection<FilePath> files, String comment,
+                                List<VcsException> errors, @Nullable ProgressIndicator progress )
+  {
+    StarteamSessionPool pool = host.getSessionPool();
+    for( List<FilePath> level : groupByDepth( folders ) )
+    {
+      List<AddFoldersTask> tasks = new ArrayList<AddFoldersTask>();
+      for( Map.Entry<String, List<FilePath>> entry : groupByParent( level ).entrySet() )
+        tasks.add( new AddFoldersTask( entry.getKey(), entry.getValue() ) );
+
+      //  The next level is added into the folders of this one.
+      pool.run( "StarTeam add folders", tasks, errors, progress );
+    }
+
+    List<AddFilesTask> tasks = new ArrayList<AddFilesTask>();
+    for( Map.Entry<String, List<FilePath>> entry : groupByParent( files ).entrySet() )
+    {
+      List<FilePath> group = entry.getValue();
+      for( int i = 0; i < group.size(); i += FILES_PER_TASK )
+        tasks.add( new AddFilesTask( entry.getKey(), group.subList( i, Math.min( group.size(), i + FILES_PER_TASK ) ), comment, errors ) );
+    }
+    pool.run( "StarTeam add files", tasks, errors, progress );
+
+    refreshChangedFolders( errors );
+  }
+
+  /**
+   * Bring the main session up to date with what the pooled sessions have
+   * added, refreshing every folder it already knows once.
+   */
+  private void refreshChangedFolders( List<VcsException> errors )
+  {
+    Set<String> changed = new HashSet<String>( myParentPaths );
+    changed.addAll( myFilledPaths );
+    changed.removeAll( myCreatedPaths );
+    for( String path : changed )
+    {
+      try
+      {
+        Folder folder = host.findFolder( StarteamChangeProvider.getSTCanonicPath( path ) );
+        if( folder == null )
+          continue;
+
+        //  Only the files are read again unless the folder has new subfolders.
+        if( myParentPaths.contains( path ) )
+          host.refreshFolderItems( folder );
+        else
+          host.refreshFiles( folder );
+      }
+      catch( VcsException e )
+      {
+        errors.add( e );
+      }
+      catch( RuntimeException e )
+      {
+        errors.add( new VcsException( e ) );
+      }
+    }
+  }
+
+  /**
+   * Creation of the new subfolders of one folder within a server session.
+   */
+  private class AddFoldersTask implements StarteamSessionPool.SessionTask
+  {
+    private final String parentPath;
+    private final List<FilePath> folders;
+
+    private AddFoldersTask( String parentPath, List<FilePath> folders )
+    {
+      this.parentPath = parentPath;
+      this.folders = folders;
+    }
+
+    public void run( StarteamSession session ) throws VcsException
+    {
+      Folder parent = resolveFolder( session, parentPath );
+      for( FilePath folder : folders )
+      {
+        ProgressManager.checkCanceled();
+        session.addFolder( parent, folder.getName() );
+        myCreatedPaths.add( folder.getPath() );
+        myParentPaths.add( parentPath );
+      }
+    }
+  }
+
+  /**
+   * Upload of the new files of one folder within a server session.
+   */
+  private class AddFilesTask implements StarteamSessionPool.SessionTask
+  {
+    private final String folderPath;
+    private final List<FilePath> files;
+    private final String comment;
+    private final List<VcsException> errors;
+
+    private AddFilesTask( String folderPath, List<FilePath> files, String comment, List<VcsException> errors )
+    {
+      this.folderPath = folderPath;
+      this.files = files;
+      this.comment = comment;
+      this.errors = errors;
+    }
+
+    public void run( StarteamSession session ) throws VcsException
+    {
+      Folder folder = resolveFolder( session, folderPath );
+      session.refreshFiles( folder );
+
+      for( FilePath file : files )
+      {
+        ProgressManager.checkCanceled();
+        try
+        {
+          //  Already in the repository - e.g. added by a previous commit which
+          //  has failed halfway.
+          if( session.findFile( StarteamChangeProvider.getSTCanonicPath( file ) ) != null )
+            continue;
+
+          host.addFile( folder, file.getIOFile(), comment );
+          myFilledPaths.add( folderPath );
+        }
+        catch( VcsException e )
+        {
+          synchronized( errors ) {  errors.add( e );  }
+        }
+      }
+    }
+  }
+
+  private static Folder resolveFolder( StarteamSession session, String path ) throws VcsException
+  {
+    String starteamPath = StarteamChangeProvider.getSTCanonicPath( path );
+    Folder folder = session.findFolder( starteamPath );
+    if( folder == null )
+    {
+      //  The folder may have been added after the session was opened, e.g. by
+      //  another session a level above.
+      session.refreshFolders();
+      folder = session.findFolder( starteamPath );
+      if( folder == null )
+        throw new VcsException( StarteamBundle.message( "exception.text.configuration.folder.not.found", starteamPath ) );
+    }
+    return folder;
+  }
+
+  private void addFolder( FilePath folder, List<VcsException> errors )
+  {
+    String parentPath = folder.getParentPath().getPath();
+    try
+    {
+      Folder parent = resolveFolder( parentPath );
+      myCreated.put( folder.getPath(), host.addFolder( parent, folder.getName() ) );
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+    }
+    catch( RuntimeException e )
+    {
+      errors.add( new VcsException( e ) );
+    }
+  }
+
+  private void addFiles( String folderPath, List<FilePath> files, String comment, List<VcsException> errors )
+  {
+    Folder folder;
+    try
+    {
+      folder = resolveFolder( folderPath );
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+      return;
+    }
+
+    boolean added = false;
+    for( FilePath file : files )
+    {
+      try
+      {
+        //  Already in the repository - e.g. added by a previous commit which
+        //  has failed halfway.
+        if( host.findFile( StarteamChangeProvider.getSTCanonicPath( file ) ) != null )
+          continue;
+
+        host.addFile( folder, file.getIOFile(), comment );
+        added = true;
+      }
+      catch( VcsException e )
+      {
+        errors.add( e );
+      }
+    }
+
+    if( added )
+      host.refreshFiles( folder );
+  }
+
+  private Folder resolveFolder( String path ) throws VcsException
+  {
+    Folder folder = myCreated.get( path );
+    if( folder == null )
+      folder = host.findFolder( StarteamChangeProvider.getSTCanonicPath( path ) );
+    if( folder == null )
+      throw new VcsException( StarteamBundle.message( "exception.text.configuration.folder.not.found",
+                                                      StarteamChangeProvider.getSTCanonicPath( path ) ) );
+    return folder;
+  }
+
+  /**
+   * @return folders grouped by the number of path components, outermost first.
+   */
+  private static Collection<List<FilePath>> groupByDepth( Collection<FilePath> folders )
+  {
+    TreeMap<Integer, List<FilePath>> levels = new TreeMap<Integer, List<FilePath>>();
+    for( FilePath folder : folders )
+    {
+      int depth = 0;
+      for( FilePath parent = folder.getParentPath(); parent != null; parent = parent.getParentPath() )
+        depth++;
+
+      List<FilePath> level = levels.get( depth );
+      if( level == null )
+      {
+        level = new ArrayList<FilePath>();
+        levels.put( depth, level );
+      }
+      level.add( folder );
+    }
+    return levels.values();
+  }
+
+  private static Map<String, List<FilePath>> groupByParent( Collection<FilePath> files )
+  {
+    Map<String, List<FilePath>> groups = new HashMap<String, List<FilePath>>();
+    for( FilePath file : files )
+    {
+      String parentPath = file.getParentPath().getPath();
+      List<FilePath> group = groups.get( parentPath );
+      if( group == null )
+      {
+        group = new ArrayList<FilePath>();
+        groups.put( parentPath, group );
+      }
+      group.add( file );
+    }
+    return groups;
+  }
+}
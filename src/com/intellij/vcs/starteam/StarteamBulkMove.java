@@ -0,0 +1,261 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Moves and renames many files at once. The source and target folders are
+ * resolved once per distinct pair of folders, and the file items of every
+ * affected folder are refreshed once when all the files are done.
+ * <p/>
+ * With more than one server session allowed, every (source folder, target
+ * folder) pair is handed to {@link StarteamSessionPool} as a task of its own,
+ * the files of a pair being moved in the order given. When one change takes
+ * the place of a file moved by another, the order across the pairs matters,
+ * and the files are moved one by one on the calling thread with the main
+ * session instead.
+ */
+class StarteamBulkMove
+{
+  private final StarteamVcs host;
+
+  //  Folders resolved so far keyed by the path.
+  private final Map<String, Folder> myFolders = new HashMap<String, Folder>();
+
+  //  Folders whose file items have changed, keyed by the item ID.
+  private final Map<Integer, Folder> myTouched = new LinkedHashMap<Integer, Folder>();
+
+  public StarteamBulkMove( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  /**
+   * @param changes renames and moves of files.
+   * @return new paths of the files moved successfully.
+   */
+  public List<FilePath> move( List<Change> changes, String comment, List<VcsException> errors,
+                              @Nullable ProgressIndicator progress )
+  {
+    List<FilePath> moved = new ArrayList<FilePath>();
+    try
+    {
+      host.refreshIfStale();
+    }
+    catch( VcsException e )
+    {
+      errors.add( e );
+      return moved;
+    }
+
+    if( changes.size() < 2 || host.getConfiguration().SERVER_SESSIONS <= 1 || isChained( changes ) )
+      moveSequentially( changes, comment, moved, errors, progress );
+    else
+      moveConcurrently( changes, comment, moved, errors, progress );
+    return moved;
+  }
+
+  /**
+   * @return true if a file is moved to where another file is moved from.
+   */
+  private static boolean isChained( List<Change> changes )
+  {
+    Set<String> sources = new HashSet<String>();
+    for( Change change : changes )
+    {
+      //noinspection ConstantConditions
+      sources.add( change.getBeforeRevision().getFile().getPath() );
+    }
+    for( Change change : changes )
+    {
+      //noinspection ConstantConditions
+      if( sources.contains( change.getAfterRevision().getFile().getPath() ) )
+        return true;
+    }
+    return false;
+  }
+
+  private void moveConcurrently( List<Change> changes, String comment, List<FilePath> moved, List<VcsException> errors,
+                                 @Nullable ProgressIndicator progress )
+  {
+    Map<List<String>, List<Change>> groups = new LinkedHashMap<List<String>, List<Change>>();
+    for( Change change : changes )
+    {
+      //noinspection ConstantConditions
+      List<String> key = Arrays.asList( change.getBeforeRevision().getFile().getParentPath().getPath(),
+                                        change.getAfterRevision().getFile().getParentPath().getPath() );
+      List<Change> group = groups.get( key );
+      if( group == null )
+      {
+        group = new ArrayList<Change>();
+        groups.put( key, group );
+      }
+      group.add( change );
+    }
+
+    List<MoveTask> tasks = new ArrayList<MoveTask>();
+    for( Map.Entry<List<String>, List<Change>> entry : groups.entrySet() )
+      tasks.add( new MoveTask( entry.getKey().get( 0 ), entry.getKey().get( 1 ), entry.getValue(), comment, moved, errors ) );
+    host.getSessionPool().run( "StarTeam move", tasks, errors, progress );
+
+    //  The main session has seen none of the moves: every affected folder is
+    //  refreshed once.
+    Set<String> affected = new LinkedHashSet<String>();
+    for( List<String> key : groups.keySet() )
+      affected.addAll( key );
+    for( String path : affected )
+    {
+      try
+      {
+        host.refreshFiles( resolveFolder( path ) );
+      }
+      catch( VcsException e )
+      {
+        errors.add( e );
+      }
+      catch( RuntimeException e )
+      {
+        errors.add( new VcsException( e ) );
+      }
+    }
+  }
+
+  /**
+   * Moves of the files from one folder to another within a server session.
+   * Results are collected into the lists shared by all the tasks.
+   */
+  private class MoveTask implements StarteamSessionPool.SessionTask
+  {
+    private final String fromPath;
+    private final String toPath;
+    private final List<Change> changes;
+    private final String comment;
+    private final List<FilePath> moved;
+    private final List<VcsException> errors;
+
+    private MoveTask( String fromPath, String toPath, List<Change> changes, String comment,
+                      List<FilePath> moved, List<VcsException> errors )
+    {
+      this.fromPath = fromPath;
+      this.toPath = toPath;
+      this.changes = changes;
+      this.comment = comment;
+      this.moved = moved;
+      this.errors = errors;
+    }
+
+    public void run( StarteamSession session ) throws VcsException
+    {
+      Folder from = resolveFolder( session, fromPath );
+      Folder to = fromPath.equals( toPath ) ? from : resolveFolder( session, toPath );
+      session.refreshFiles( from );
+
+      for( Change change : changes )
+      {
+        ProgressManager.checkCanceled();
+
+        //noinspection ConstantConditions
+        FilePath oldFile = change.getBeforeRevision().getFile();
+        FilePath newFile = change.getAfterRevision().getFile();
+        String oldPath = StarteamChangeProvider.getSTCanonicPath( oldFile );
+        try
+        {
+          File f = session.findFile( oldPath );
+          if( f == null )
+            throw new VcsException( StarteamBundle.message( "exception.text.configuration.file.not.found", oldPath ) );
+
+          if( from == to )
+            host.renameAndCheckInFile( f, newFile.getName(), newFile.getIOFile(), comment );
+          else
+            host.moveRenameAndCheckInFile( f, to, newFile.getName(), newFile.getIOFile(), comment );
+          synchronized( moved ) {  moved.add( newFile );  }
+        }
+        catch( VcsException e )
+        {
+          synchronized( errors ) {  errors.add( e );  }
+        }
+      }
+    }
+  }
+
+  private static Folder resolveFolder( StarteamSession session, String path ) throws VcsException
+  {
+    String stPath = StarteamChangeProvider.getSTCanonicPath( path );
+    Folder folder = session.findFolder( stPath );
+    if( folder == null )
+    {
+      //  The folder may have been added after the session was opened.
+      session.refreshFolders();
+      folder = session.findFolder( stPath );
+      if( folder == null )
+        throw new VcsException( StarteamBundle.message( "exception.text.configuration.folder.not.found", stPath ) );
+    }
+    return folder;
+  }
+
+  private void moveSequentially( List<Change> changes, String comment, List<FilePath> moved, List<VcsException> errors,
+                                 @Nullable ProgressIndicator progress )
+  {
+    for( Change change : changes )
+    {
+      if( progress != null )
+        progress.checkCanceled();
+
+      //noinspection ConstantConditions
+      FilePath oldFile = change.getBeforeRevision().getFile();
+      FilePath newFile = change.getAfterRevision().getFile();
+      try
+      {
+        Folder from = resolveFolder( oldFile.getParentPath().getPath() );
+        Folder to = resolveFolder( newFile.getParentPath().getPath() );
+
+        String oldPath = StarteamChangeProvider.getSTCanonicPath( oldFile );
+        File f = host.findFile( oldPath );
+        if( f == null )
+          throw new VcsException( StarteamBundle.message( "exception.text.configuration.file.not.found", oldPath ) );
+
+        if( from == to )
+          host.renameAndCheckInFile( f, newFile.getName(), newFile.getIOFile(), comment );
+        else
+          host.moveRenameAndCheckInFile( f, to, newFile.getName(), newFile.getIOFile(), comment );
+        moved.add( newFile );
+
+        myTouched.put( from.getID(), from );
+        myTouched.put( to.getID(), to );
+      }
+      catch( VcsException e )
+      {
+        errors.add( e );
+      }
+      catch( RuntimeException e )
+      {
+        errors.add( new VcsException( e ) );
+      }
+    }
+
+    for( Folder folder : myTouched.values() )
+      host.refreshFiles( folder );
+  }
+
+  private Folder resolveFolder( String path ) throws VcsException
+  {
+    Folder folder = myFolders.get( path );
+    if( folder == null )
+    {
+      String stPath = StarteamChangeProvider.getSTCanonicPath( path );
+      folder = host.findFolder( stPath );
+      if( folder == null )
+        throw new VcsException( StarteamBundle.message( "exception.text.configuration.folder.not.found", stPath ) );
+      myFolders.put( path, folder );
+    }
+    return folder;
+  }
+}
@@ -15,10 +15,11 @@ import com.starbase.starteam.ServerException;
 import com.starbase.starteam.Status;
 import com.starbase.starteam.TypeNotFoundException;
 import com.starbase.starteam.vts.comm.CommandException;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.util.HashSet;
-import java.util.List;
+import java.net.SocketException;
+import java.util.*;
 
 /**
  * Created by IntelliJ IDEA.
@@ -29,16 +30,21 @@ public class StarteamChangeProvider implements ChangeProvider
 {
   private final Project     project;
   private final StarteamVcs host;
+  private final StarteamStatusFetcher statusFetcher;
   private boolean     warnShown;
 
   private final HashSet<String> filesNew = new HashSet<String>();
   private final HashSet<String> filesChanged = new HashSet<String>();
   private final HashSet<String> filesIgnored = new HashSet<String>();
+  private final HashSet<String> filesToPrefetch = new HashSet<String>();
+  private final List<FilePath> filesToCheck = new ArrayList<FilePath>();
+  private final List<Change> foldersRenamed = new ArrayList<Change>();
 
   public StarteamChangeProvider( Project project, StarteamVcs host )
   {
     this.project = project;
     this.host = host;
+    statusFetcher = new StarteamStatusFetcher( host );
     warnShown = false;
   }
 
@@ -48,18 +54,29 @@ public class StarteamChangeProvider implements ChangeProvider
   }
 
   public void getChanges(final VcsDirtyScope dirtyScope, final ChangelistBuilder builder, final ProgressIndicator progress,
-                         final ChangeListManagerGate addGate)
+                         final ChangeListManagerGate addGate) throws VcsException
   {
     initInternals();
     try
     {
-      iterateOverScope( dirtyScope, builder );
-      iterateOverDirtyFiles( dirtyScope, builder );
-
+      //  Pick up the items changed by our own operations (e.g. files added on
+      //  the last commit) without refreshing the whole view.
+      host.refreshStaleFolders();
+
+      //  The scope is traversed on this thread; the statuses which need the
+      //  server are fetched concurrently on the pooled sessions and merged
+      //  before anything is passed to the builder.
+      iterateOverScope( dirtyScope );
+      iterateOverDirtyFiles( dirtyScope );
+      processFiles( builder, progress );
+
+      addRenamedFolders( builder );
       addNewAndRenamedFiles( builder );
       addChangedFiles( builder );
       addRemovedFiles( builder );
       addIgnoredFiles( builder );
+
+      host.getPrefetcher().update( dirtyScope, filesToPrefetch );
     }
     //  User description: When we are not connected to the network. We get the following error.
     //  Error message: Connection reset by peer: socket write error
@@ -74,6 +91,16 @@ public class StarteamChangeProvider implements ChangeProvider
     catch( TypeNotFoundException e ){
       processFailedConnection( StarteamBundle.message("message.text.expired.license") );
     }
+    //  Refreshes of the view wrap the SDK exceptions; only the connection
+    //  failures are reported here, the rest go to the caller.
+    catch( VcsException e ){
+      if( e.getCause() instanceof ServerException )
+        processFailedConnection( StarteamBundle.message("message.text.lost.connection") );
+      else if( e.getCause() instanceof CommandException || e.getCause() instanceof SocketException )
+        processFailedConnection( StarteamBundle.message("message.text.network.connection.fail") );
+      else
+        throw e;
+    }
   }
 
   private void processFailedConnection( final String msg )
@@ -109,13 +136,13 @@ public class StarteamChangeProvider implements ChangeProvider
     }
   }
 
-  private void iterateOverScope( VcsDirtyScope scope, ChangelistBuilder builder )
+  private void iterateOverScope( VcsDirtyScope scope )
   {
     for( FilePath path : scope.getRecursivelyDirtyDirectories() )
-      iterateOverDirectories( path.getPath(), builder );
+      iterateOverDirectories( path.getPath() );
   }
 
-  private void iterateOverDirectories( String path, final ChangelistBuilder builder )
+  private void iterateOverDirectories( String path )
   {
     VirtualFile folder = VcsUtil.getVirtualFile( path );
     if( folder != null && !host.isFileIgnored( folder ))
@@ -124,21 +151,20 @@ public class StarteamChangeProvider implements ChangeProvider
       for( VirtualFile vf : childs )
       {
         FilePath filepath = VcsUtil.getFilePath( vf.getPath() );
-        processItem( filepath, builder );
+        processItem( filepath );
       }
     }
   }
 
-  private void iterateOverDirtyFiles( final VcsDirtyScope dirtyScope,
-                                      final ChangelistBuilder builder )
+  private void iterateOverDirtyFiles( final VcsDirtyScope dirtyScope )
   {
     for( FilePath path : dirtyScope.getDirtyFiles() )
     {
-      processItem( path, builder );
+      processItem( path );
     }
   }
 
-  private void processItem(FilePath path, final ChangelistBuilder builder)
+  private void processItem( FilePath path )
   {
     //  Filter out al files which are located within the project root on the HD
     //  but are not in the structure of the project.
@@ -146,36 +172,87 @@ public class StarteamChangeProvider implements ChangeProvider
     {
       if( path.isDirectory() )
       {
-        processFolder( path, builder );
-        iterateOverDirectories( path.getPath(), builder );
+        processFolder( path );
+        iterateOverDirectories( path.getPath() );
       }
       else
-        processFile( path, builder );
+        collectFile( path );
     }
   }
 
+  private void collectFile( final FilePath filePath )
+  {
+    //  Files that match with the ignored patterns are processed separately.
+    if( host.isFileIgnored( filePath.getVirtualFile() ) )
+      filesIgnored.add( filePath.getPath() );
+    else
+      filesToCheck.add( filePath );
+  }
+
+  /**
+   * Files which have not been touched on disk since their status was last
+   * recorded keep that status without any server call; if enabled, the local
+   * status repository decides the obvious cases next. Statuses of the rest
+   * are brought up to date in bulk - one server call per parent folder instead
+   * of one call per file.
+   */
+  private void processFiles( final ChangelistBuilder builder, final ProgressIndicator progress ) throws VcsException
+  {
+    final StarteamLocalSnapshot snapshot = host.getLocalSnapshot();
+    final SbasTimestampHeuristic sbasHeuristic = host.getConfiguration().READ_LOCAL_STATUS_REPOSITORY ? new SbasTimestampHeuristic() : null;
+    final List<FilePath> unresolved = new ArrayList<FilePath>();
+    for( FilePath filePath : filesToCheck )
+    {
+      int status = snapshot.getStatus( filePath.getIOFile() );
+      if( status != StarteamLocalSnapshot.NO_STATUS )
+        processStatus( filePath, status, builder );
+      else
+      if( sbasHeuristic == null || !processLocalStatus( filePath, sbasHeuristic.getStatus( filePath.getIOFile() ), builder ) )
+        unresolved.add( filePath );
+    }
+
+    Map<String, Integer> statuses = statusFetcher.fetch( unresolved, progress );
+    for( FilePath filePath : unresolved )
+      processFile( filePath, statuses.get( filePath.getPath() ), builder );
+  }
+
+  /**
+   * @return false if the status guessed from the local status repository is not
+   *         enough to decide and the server must be asked.
+   */
+  private boolean processLocalStatus( final FilePath filePath, int status, final ChangelistBuilder builder )
+  {
+    if( status == Status.CURRENT || status == Status.MISSING )
+    {
+      processStatus( filePath, status, builder );
+      return true;
+    }
+
+    //  No status record - the file is new unless the repository already has
+    //  an item with this name (e.g. added by somebody else). Modified files
+    //  always go to the server which is able to tell about merge conflicts.
+    if( status == Status.NEW && host.findFile( getSTCanonicPath( filePath ) ) == null )
+    {
+      processFile( filePath, null, builder );
+      return true;
+    }
+    return false;
+  }
+
   //---------------------------------------------------------------------------
   //  Get information on files that differ from the Starteam project location:
   //  - different content
   //  - not present in Starteam repository (added locally)
   //  - absent in local directory (this information is not used currently).
   //---------------------------------------------------------------------------
-  private void processFile(final FilePath filePath, final ChangelistBuilder builder)
+  private void processFile( final FilePath filePath, @Nullable final Integer fetchedStatus,
+                            final ChangelistBuilder builder )
   {
     String  path = filePath.getPath();
 
-    //  Files that match with the ignored patterns are processed separately.
-    if( host.isFileIgnored( filePath.getVirtualFile() ) )
-    {
-      filesIgnored.add( path );
-      return;
-    }
-
-    com.starbase.starteam.File file = host.findFile( getSTCanonicPath( filePath ) );
-
     try
     {
-      if( file == null )
+      if( fetchedStatus == null )
       {
         if( !isFileUnderRenamedDir( path ) && isProperNotification( filePath ) )
         {
@@ -184,37 +261,10 @@ public class StarteamChangeProvider implements ChangeProvider
       }
       else
       {
-        //  In certain cases we still get status "UNKNOWN" (int 6) after the
-        //  particular amount of time (even after full resync). Try to refresh.
-        try { file.updateStatus(false, true); }
-        catch( Exception e )
-        {
-          //  Nothing to do - if <updateStatus> throws an exception then most
-          //  probably we deal with latest version
-        }
-
-        int status = file.getStatus();
-        if( status == Status.NEW )
-          filesNew.add( path );
-        else
-        if( status == Status.MERGE )
-          builder.processChange( new Change( new STContentRevision(host, filePath ), new CurrentContentRevision( filePath ), FileStatus.MERGE ),
-                                 StarteamVcs.getKey());
-        else
-        if( status == Status.MODIFIED )
-          filesChanged.add( path );
-        else
-        if( status == Status.MISSING )
-        {
-          //  We have two source of information on locally deleted files:
-          //  - one is stored in StarteamVcs host as a list controllable by VFS listener
-          //  - here, on folder traverse.
-          //  So do not duplicate files in the dirty lists.
-
-          String normPath = filePath.getPath().replace( File.separatorChar, '/');
-          if( !host.removedFiles.contains( normPath ))
-            builder.processLocallyDeletedFile( filePath );
-        }
+        int status = fetchedStatus.intValue();
+        if( status != Status.UNKNOWN && status != Status.NEW )
+          host.getLocalSnapshot().record( filePath.getIOFile(), status );
+        processStatus( filePath, status, builder );
       }
     }
     catch( Exception e )
@@ -224,7 +274,40 @@ public class StarteamChangeProvider implements ChangeProvider
     }
   }
 
-  private void processFolder( final FilePath filePath, final ChangelistBuilder builder )
+  private void processStatus( final FilePath filePath, int status, final ChangelistBuilder builder )
+  {
+    String  path = filePath.getPath();
+
+    if( status == Status.NEW )
+      filesNew.add( path );
+    else
+    if( status == Status.MERGE )
+    {
+      builder.processChange( new Change( new STContentRevision(host, filePath ), new CurrentContentRevision( filePath ), FileStatus.MERGE ),
+                             StarteamVcs.getKey());
+      filesToPrefetch.add( path );
+    }
+    else
+    if( status == Status.MODIFIED )
+    {
+      filesChanged.add( path );
+      filesToPrefetch.add( path );
+    }
+    else
+    if( status == Status.MISSING )
+    {
+      //  We have two source of information on locally deleted files:
+      //  - one is stored in StarteamVcs host as a list controllable by VFS listener
+      //  - here, on folder traverse.
+      //  So do not duplicate files in the dirty lists.
+
+      String normPath = filePath.getPath().replace( File.separatorChar, '/');
+      if( !host.removedFiles.contains( normPath ))
+        builder.processLocallyDeletedFile( filePath );
+    }
+  }
+
+  private void processFolder( final FilePath filePath )
   {
     String  path = filePath.getPath();
 
@@ -256,7 +339,7 @@ public class StarteamChangeProvider implements ChangeProvider
 
             //  Check whether we perform "undo" of the rename. This is easily
             //  done if we want to undo the refactoring of the package rename.
-            builder.processChange( new Change( new STContentRevision( host, oldName ), new STContentRevision( host, filePath )), StarteamVcs.getKey());
+            foldersRenamed.add( new Change( new STContentRevision( host, oldName ), new STContentRevision( host, filePath )) );
             /*
             else
             {
@@ -281,7 +364,7 @@ public class StarteamChangeProvider implements ChangeProvider
         if( oldPath != null )
         {
           FilePath oldName = VcsUtil.getFilePath( oldPath );
-          builder.processChange( new Change( new STContentRevision( host, oldName ), new STContentRevision( host, filePath )), StarteamVcs.getKey());
+          foldersRenamed.add( new Change( new STContentRevision( host, oldName ), new STContentRevision( host, filePath )) );
         }
       }
     }
@@ -292,6 +375,12 @@ public class StarteamChangeProvider implements ChangeProvider
     }
   }
 
+  private void addRenamedFolders( final ChangelistBuilder builder )
+  {
+    for( Change change : foldersRenamed )
+      builder.processChange( change, StarteamVcs.getKey() );
+  }
+
   private void addNewAndRenamedFiles( final ChangelistBuilder builder )
   {
     for( String path : filesNew )
@@ -381,5 +470,8 @@ public class StarteamChangeProvider implements ChangeProvider
     filesNew.clear();
     filesChanged.clear();
     filesIgnored.clear();
+    filesToPrefetch.clear();
+    filesToCheck.clear();
+    foldersRenamed.clear();
   }
 }
@@ -23,6 +23,7 @@
 package com.intellij.vcs.starteam;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.*;
@@ -38,6 +39,7 @@ import com.intellij.util.NullableFunction;
 import com.intellij.util.PairConsumer;
 import com.intellij.vcsUtil.VcsUtil;
 import com.starbase.starteam.Folder;
+import com.starbase.starteam.Status;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.NotNull;
@@ -45,10 +47,19 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackEnvironment {
+  //  Files of a folder processed by one server session in a row.
+  private static final int FILES_PER_TASK = 25;
+
   private final Project project;
   private final StarteamVcs host;
 
@@ -87,11 +98,25 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
     List<VcsException> errors = new ArrayList<VcsException>();
     List<String> mergeFiles = new ArrayList<String>();
 
-    commitNew(changes, preparedComment, processedFiles, errors);
-    commitChanged(changes, preparedComment, processedFiles, errors, mergeFiles);
-    commitRenamed(changes, preparedComment, processedFiles, errors);
+    //  A conflicting file stops the whole commit before anything is uploaded,
+    //  so that no partial change set reaches the repository.
+    List<FilePath> conflicts = checkConflicts(changes);
+    if (!conflicts.isEmpty()) {
+      for (FilePath file : conflicts) {
+        String path = StarteamChangeProvider.getSTCanonicPath(file);
+        VcsException e = new VcsException(StarteamBundle.message("exception.text.checkin.conflict", path));
+        e.setVirtualFile(file.getVirtualFile());
+        errors.add(e);
+        mergeFiles.add(path);
+      }
+    }
+    else {
+      commitNew(changes, preparedComment, processedFiles, errors);
+      commitChanged(changes, preparedComment, processedFiles, errors, mergeFiles);
+      commitRenamed(changes, preparedComment, processedFiles, errors);
 
-    VcsUtil.refreshFiles(project, processedFiles);
+      VcsUtil.refreshFiles(project, processedFiles);
+    }
 
     if (mergeFiles.size() > 0) {
       final UpdatedFiles updatedFiles = UpdatedFiles.create();
@@ -116,6 +141,45 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
     return commit(changes, preparedComment);
   }
 
+  /**
+   * Statuses of all the modified files are obtained in bulk before anything is
+   * uploaded, so that every file conflicting with its repository version is
+   * known before the commit starts.
+   * @return the conflicting files, all of them.
+   */
+  private List<FilePath> checkConflicts(List<Change> changes) {
+    List<FilePath> conflicts = new ArrayList<FilePath>();
+    List<FilePath> files = new ArrayList<FilePath>();
+    for (Change change : changes) {
+      if (!VcsUtil.isRenameChange(change) && (change.getBeforeRevision() != null)) {
+        //noinspection ConstantConditions
+        files.add(change.getAfterRevision().getFile());
+      }
+    }
+    if (files.isEmpty()) return conflicts;
+
+    Map<String, Integer> statuses;
+    try {
+      host.refreshIfStale();
+      statuses = new StarteamStatusFetcher(host).fetch(files, ProgressManager.getInstance().getProgressIndicator());
+    }
+    catch (VcsException e) {
+      //  Nothing to do - the checkin of every file checks its status anyway.
+      return conflicts;
+    }
+
+    for (FilePath file : files) {
+      //  Files missing in the repository are reported by the checkin itself.
+      Integer status = statuses.get(file.getPath());
+      if (status == null) continue;
+
+      if (status == Status.MERGE || status == Status.OUTOFDATE) {
+        conflicts.add(file);
+      }
+    }
+    return conflicts;
+  }
+
   private void commitNew(List<Change> changes, String comment, HashSet<FilePath> processedFiles, List<VcsException> errors) {
     HashSet<FilePath> folders = new HashSet<FilePath>();
     HashSet<FilePath> files = new HashSet<FilePath>();
@@ -128,6 +192,20 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
                                          HashSet<FilePath> processedFiles,
                                          HashSet<FilePath> folders,
                                          HashSet<FilePath> files) {
+    final FileStatusManager statusManager = FileStatusManager.getInstance(project);
+    HashSet<FilePath> visitedParents = new HashSet<FilePath>();
+    ParentFolders<FilePath> parents = new ParentFolders<FilePath>() {
+      public FilePath getParent(FilePath path) {
+        return path.getParentPath();
+      }
+
+      public boolean isNew(FilePath folder) {
+        VirtualFile file = folder.getVirtualFile();
+        if (file == null) return false;
+        FileStatus status = statusManager.getStatus(file);
+        return status == FileStatus.ADDED || status == FileStatus.UNKNOWN;
+      }
+    };
     for (Change change : changes) {
       if (VcsUtil.isChangeForNew(change)) {
         FilePath filePath = change.getAfterRevision().getFile();
@@ -136,7 +214,7 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
         }
         else {
           files.add(filePath);
-          analyzeParent(filePath, folders);
+          analyzeParent(filePath, folders, visitedParents, parents);
         }
       }
     }
@@ -150,28 +228,7 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
    * has no "before" revision.
    */
   private void commitFoldersAndFiles(HashSet<FilePath> folders, HashSet<FilePath> files, String comment, List<VcsException> errors) {
-    FilePath[] foldersSorted = folders.toArray(new FilePath[folders.size()]);
-    foldersSorted = VcsUtil.sortPathsFromOutermost(foldersSorted);
-
-    for (FilePath folder : foldersSorted) {
-      try {
-        String parentPath = StarteamChangeProvider.getSTCanonicPath(folder.getVirtualFileParent().getPath());
-        host.addDirectory(parentPath, folder.getName(), comment);
-      }
-      catch (VcsException e) {
-        errors.add(e);
-      }
-    }
-
-    for (FilePath file : files) {
-      try {
-        String parentPath = StarteamChangeProvider.getSTCanonicPath(file.getVirtualFileParent().getPath());
-        host.addFile(parentPath, file.getName(), comment, null);
-      }
-      catch (VcsException e) {
-        errors.add(e);
-      }
-    }
+    new StarteamBulkAdd(host).add(folders, files, comment, errors, ProgressManager.getInstance().getProgressIndicator());
   }
 
   /**
@@ -179,74 +236,199 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
    * to the list of folders OBLIGATORY for addition into the repository -
    * no file can be added into VSS without all higher folders are already
    * presented there.
-   * Process with the parent's parent recursively.
+   * Process with the parent's parent up the tree. A folder visited before
+   * within this commit has its ancestors processed already, so the walk
+   * stops there and every folder's status is asked for once per commit.
    */
-  private void analyzeParent(FilePath file, HashSet<FilePath> folders) {
-    VirtualFile parent = file.getVirtualFileParent();
-    FileStatus status = FileStatusManager.getInstance(project).getStatus(parent);
-    if (status == FileStatus.ADDED || status == FileStatus.UNKNOWN) {
-      FilePath parentPath = file.getParentPath();
-      folders.add(parentPath);
-      analyzeParent(parentPath, folders);
+  static <T> void analyzeParent(T file, Set<T> folders, Set<T> visitedParents, ParentFolders<T> parents) {
+    T parent = parents.getParent(file);
+    while (parent != null && visitedParents.add(parent)) {
+      if (!parents.isNew(parent)) break;
+
+      folders.add(parent);
+      parent = parents.getParent(parent);
     }
   }
 
+  interface ParentFolders<T> {
+    @Nullable
+    T getParent(T path);
+
+    /**
+     * @return true if the folder is not in the repository yet.
+     */
+    boolean isNew(T folder);
+  }
+
+  /**
+   * Modified files are checked in concurrently over the additional server
+   * sessions: the files are grouped by folder and every group is resolved
+   * with a single refresh of its folder's items.
+   */
   private void commitChanged(List<Change> changes,
                              String preparedComment,
                              HashSet<FilePath> processedFiles,
                              List<VcsException> errors,
                              List<String> mergeFiles) {
+    Map<String, List<FilePath>> filesByFolder = new LinkedHashMap<String, List<FilePath>>();
+    int count = 0;
     for (Change change : changes) {
-      try {
-        //noinspection ConstantConditions
-        FilePath file = change.getAfterRevision().getFile();
-        if (!VcsUtil.isRenameChange(change) && (change.getBeforeRevision() != null)) {
-          String starteamFilePath = StarteamChangeProvider.getSTCanonicPath(file);
-          boolean success = host.checkinFile(starteamFilePath, preparedComment, null);
-          if (!success) mergeFiles.add(starteamFilePath);
+      //noinspection ConstantConditions
+      FilePath file = change.getAfterRevision().getFile();
+      if (!VcsUtil.isRenameChange(change) && (change.getBeforeRevision() != null)) {
+        String folderPath = StarteamChangeProvider.getSTCanonicPath(file.getParentPath());
+        List<FilePath> files = filesByFolder.get(folderPath);
+        if (files == null) {
+          files = new ArrayList<FilePath>();
+          filesByFolder.put(folderPath, files);
         }
+        files.add(file);
+        count++;
+      }
+      else {
         processedFiles.add(file);
       }
-      catch (VcsException e) {
-        errors.add(e);
+    }
+
+    if (count < 2 || host.getConfiguration().SERVER_SESSIONS <= 1) {
+      for (List<FilePath> files : filesByFolder.values()) {
+        for (FilePath file : files) {
+          try {
+            String starteamFilePath = StarteamChangeProvider.getSTCanonicPath(file);
+            com.starbase.starteam.File starteamFile = host.findFile(starteamFilePath);
+            if (starteamFile == null) {
+              throw new VcsException(StarteamBundle.message("exception.text.configuration.file.not.found", starteamFilePath));
+            }
+
+            boolean success = host.checkinFile(starteamFile, new File(starteamFilePath), preparedComment);
+            if (!success) mergeFiles.add(starteamFilePath);
+            processedFiles.add(file);
+          }
+          catch (VcsException e) {
+            errors.add(e);
+          }
+        }
       }
     }
+    else {
+      List<CheckinTask> tasks = new ArrayList<CheckinTask>();
+      for (Map.Entry<String, List<FilePath>> entry : filesByFolder.entrySet()) {
+        List<FilePath> files = entry.getValue();
+        for (int i = 0; i < files.size(); i += FILES_PER_TASK) {
+          tasks.add(new CheckinTask(entry.getKey(), files.subList(i, Math.min(files.size(), i + FILES_PER_TASK)), preparedComment,
+                                    processedFiles, errors, mergeFiles));
+        }
+      }
+      host.getSessionPool().run("StarTeam checkin", tasks, errors, ProgressManager.getInstance().getProgressIndicator());
+    }
+
+    for (String folderPath : filesByFolder.keySet()) {
+      host.markFolderStale(folderPath);
+    }
   }
 
-  private void commitRenamed(List<Change> changes, String preparedComment, HashSet<FilePath> processedFiles, List<VcsException> errors) {
-    for (Change change : changes) {
-      try {
-        if (VcsUtil.isRenameChange(change)) {
-          FilePath file = change.getAfterRevision().getFile();
-          String newPath = file.getPath();
-          String oldPath = StarteamChangeProvider.getSTCanonicPath(change.getBeforeRevision().getFile());
-          if (file.isDirectory()) {
-            host.renameDirectoryNew(StarteamChangeProvider.getSTCanonicPath(newPath), file.getName());
-            host.renamedDirs.remove(newPath);
+
+  /**
+   * Checkin of the modified files of one folder within a server session.
+   * Results are collected into the lists shared by all the tasks.
+   */
+  private class CheckinTask implements StarteamSessionPool.SessionTask {
+    private final String folderPath;
+    private final List<FilePath> files;
+    private final String comment;
+    private final HashSet<FilePath> processedFiles;
+    private final List<VcsException> errors;
+    private final List<String> mergeFiles;
+
+    public CheckinTask(String folderPath, List<FilePath> files, String comment,
+                       HashSet<FilePath> processedFiles, List<VcsException> errors, List<String> mergeFiles) {
+      this.folderPath = folderPath;
+      this.files = files;
+      this.comment = comment;
+      this.processedFiles = processedFiles;
+      this.errors = errors;
+      this.mergeFiles = mergeFiles;
+    }
+
+    public void run(StarteamSession session) throws VcsException {
+      Folder folder = session.findFolder(folderPath);
+      if (folder == null) {
+        //  The folder may have been added after the session was opened.
+        session.refreshFolders();
+        folder = session.findFolder(folderPath);
+        if (folder == null) {
+          throw new VcsException(StarteamBundle.message("exception.text.configuration.folder.not.found", folderPath));
+        }
+      }
+      session.refreshFiles(folder);
+
+      for (FilePath file : files) {
+        ProgressManager.checkCanceled();
+        String starteamFilePath = StarteamChangeProvider.getSTCanonicPath(file);
+        try {
+          com.starbase.starteam.File starteamFile = session.findFile(starteamFilePath);
+          if (starteamFile == null) {
+            throw new VcsException(StarteamBundle.message("exception.text.configuration.file.not.found", starteamFilePath));
           }
-          else {
-            //  If parent folders' names of the revisions coinside, then we
-            //  deal with the simple rename, otherwise we process full-scaled
-            //  file movement across folders (packages).
 
-            FilePath oldfile = change.getBeforeRevision().getFile();
-            if (oldfile.getVirtualFileParent().getPath().equals(file.getVirtualFileParent().getPath())) {
-              host.renameAndCheckInFile(oldPath, file.getName(), preparedComment);
-            }
-            else {
-              String newFolder = StarteamChangeProvider.getSTCanonicPath(file.getVirtualFileParent().getPath());
-              host.moveRenameAndCheckInFile(oldPath, newFolder, file.getName(), preparedComment);
+          boolean success = host.checkinFile(starteamFile, new File(starteamFilePath), comment);
+          if (!success) {
+            synchronized (mergeFiles) {
+              mergeFiles.add(starteamFilePath);
             }
-
-            host.renamedFiles.remove(newPath);
+          }
+          synchronized (processedFiles) {
             processedFiles.add(file);
           }
         }
+        catch (VcsException e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Changes are processed in the order given, as if one by one: a directory
+   * rename is done when it comes, the runs of renamed and moved files between
+   * directory renames are processed in bulk, see {@link StarteamBulkMove}.
+   */
+  private void commitRenamed(List<Change> changes, String preparedComment, HashSet<FilePath> processedFiles, List<VcsException> errors) {
+    List<Change> fileChanges = new ArrayList<Change>();
+    for (Change change : changes) {
+      if (!VcsUtil.isRenameChange(change)) continue;
+
+      FilePath file = change.getAfterRevision().getFile();
+      if (!file.isDirectory()) {
+        fileChanges.add(change);
+        continue;
+      }
+
+      moveFiles(fileChanges, preparedComment, processedFiles, errors);
+      fileChanges.clear();
+      try {
+        String newPath = file.getPath();
+        host.renameDirectoryNew(StarteamChangeProvider.getSTCanonicPath(newPath), file.getName());
+        host.renamedDirs.remove(newPath);
       }
       catch (VcsException e) {
         errors.add(e);
       }
     }
+    moveFiles(fileChanges, preparedComment, processedFiles, errors);
+  }
+
+  private void moveFiles(List<Change> fileChanges, String preparedComment, HashSet<FilePath> processedFiles, List<VcsException> errors) {
+    if (fileChanges.isEmpty()) return;
+
+    List<FilePath> moved =
+      new StarteamBulkMove(host).move(fileChanges, preparedComment, errors, ProgressManager.getInstance().getProgressIndicator());
+    for (FilePath file : moved) {
+      host.renamedFiles.remove(file.getPath());
+      processedFiles.add(file);
+    }
   }
 
   /**
@@ -294,64 +476,282 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
       }
     }
 
+    FolderTrie foldersIndex = new FolderTrie();
+    for (FilePath folder : foldersNew) {
+      foldersIndex.add(folder.getPath());
+    }
+
     ChangeListManager clMgr = ChangeListManager.getInstance(project);
     FileStatusManager fsMgr = FileStatusManager.getInstance(project);
     List<VirtualFile> allAffectedFiles = clMgr.getAffectedFiles();
 
     for (VirtualFile file : allAffectedFiles) {
       FileStatus status = fsMgr.getStatus(file);
-      if (status == FileStatus.ADDED) {
-        for (FilePath folder : foldersNew) {
-          if (file.getPath().toLowerCase().startsWith(folder.getPath().toLowerCase())) {
-            FilePath path = clMgr.getChange(file).getAfterRevision().getFile();
-            newFilesAndfolders.add(path);
-          }
-        }
+      if (status == FileStatus.ADDED && foldersIndex.containsAncestorOf(file.getPath())) {
+        FilePath path = clMgr.getChange(file).getAfterRevision().getFile();
+        newFilesAndfolders.add(path);
       }
     }
     newFilesAndfolders.addAll(foldersNew);
   }
 
+  /**
+   * Folder paths indexed by their components, case insensitive, so that
+   * finding whether a file is under any of the folders costs one lookup per
+   * component of the file's path.
+   */
+  static class FolderTrie {
+    private final Map<String, FolderTrie> children = new HashMap<String, FolderTrie>();
+    private boolean isFolder;
+
+    public void add(String path) {
+      FolderTrie node = this;
+      int start = 0;
+      while (start <= path.length()) {
+        int end = nextSeparator(path, start);
+        String name = path.substring(start, end).toLowerCase();
+        FolderTrie child = node.children.get(name);
+        if (child == null) {
+          child = new FolderTrie();
+          node.children.put(name, child);
+        }
+        node = child;
+        start = end + 1;
+      }
+      node.isFolder = true;
+    }
+
+    /**
+     * @return true if the path is one of the folders or lies under one of them.
+     */
+    public boolean containsAncestorOf(String path) {
+      FolderTrie node = this;
+      int start = 0;
+      while (start <= path.length()) {
+        int end = nextSeparator(path, start);
+        node = node.children.get(path.substring(start, end).toLowerCase());
+        if (node == null) return false;
+        if (node.isFolder) return true;
+        start = end + 1;
+      }
+      return false;
+    }
+
+    private static int nextSeparator(String path, int start) {
+      int end = path.indexOf('/', start);
+      return (end < 0) ? path.length() : end;
+    }
+  }
+
   /**
    * Rolling back modified files is a getting out the latest copy of them
-   * from the repository. The only difference in the processing is made for
+   * from the repository, or from the copy kept since the last checkout when
+   * the repository has no newer revision. The only difference in the processing is made for
    * renamed files - we must get out file with the original name.
+   * Files are checked out concurrently over the additional server sessions,
+   * every folder resolved with a single refresh of its file items; the
+   * progress is reported to the listener from the calling thread.
    */
   private void rollbackChanged(List<Change> changes, List<VcsException> errors, @NotNull final RollbackProgressListener listener) {
+    List<RevertedFile> files = new ArrayList<RevertedFile>();
     for (Change change : changes) {
       FilePath newFile = change.getAfterRevision().getFile();
       String newPath = StarteamChangeProvider.getSTCanonicPath(newFile);
       try {
         if (VcsUtil.isRenameChange(change)) {
-          listener.accept(change);
-
           FilePath oldFile = change.getBeforeRevision().getFile();
           String oldPath = StarteamChangeProvider.getSTCanonicPath(oldFile);
 
           if (newFile.isDirectory()) {
+            listener.accept(change);
+
             new File(newPath).renameTo(new File(oldPath));
             host.setWorkingFolderName(newPath, oldFile.getName());
             host.renamedDirs.remove(newFile.getPath());
           }
           else {
-            host.checkoutFile(oldPath, false);
-            host.renamedFiles.remove(newFile.getPath());
-
-            FileUtil.delete(new File(newPath));
+            files.add(new RevertedFile(change, oldFile, newFile));
           }
         }
         else if (!VcsUtil.isChangeForNew(change)) {
-          listener.accept(change);
+          files.add(new RevertedFile(change, newFile, null));
+        }
+      }
+      catch (VcsException e) {
+        errors.add(e);
+      }
+    }
+
+    Map<String, List<RevertedFile>> filesByFolder = new LinkedHashMap<String, List<RevertedFile>>();
+    for (RevertedFile file : files) {
+      String folderPath = StarteamChangeProvider.getSTCanonicPath(file.file.getParentPath());
+      List<RevertedFile> group = filesByFolder.get(folderPath);
+      if (group == null) {
+        group = new ArrayList<RevertedFile>();
+        filesByFolder.put(folderPath, group);
+      }
+      group.add(file);
+    }
+
+    if (files.size() < 2 || host.getConfiguration().SERVER_SESSIONS <= 1) {
+      rollbackSequentially(filesByFolder, errors, listener);
+      return;
+    }
+
+    List<RevertedFile> reverted = new ArrayList<RevertedFile>();
+    final Queue<Change> started = new ConcurrentLinkedQueue<Change>();
+    List<RollbackTask> tasks = new ArrayList<RollbackTask>();
+    for (Map.Entry<String, List<RevertedFile>> entry : filesByFolder.entrySet()) {
+      List<RevertedFile> group = entry.getValue();
+      for (int i = 0; i < group.size(); i += FILES_PER_TASK) {
+        tasks.add(new RollbackTask(entry.getKey(), group.subList(i, Math.min(group.size(), i + FILES_PER_TASK)), reverted, errors,
+                                   started));
+      }
+    }
 
-          host.checkoutFile(newPath, false);
+    //  A task run again on another session reports its files once more.
+    final Set<Change> accepted = new HashSet<Change>();
+    Runnable reportProgress = new Runnable() {
+      public void run() {
+        for (Change change = started.poll(); change != null; change = started.poll()) {
+          if (accepted.add(change)) listener.accept(change);
         }
       }
+    };
+    host.getSessionPool().run("StarTeam rollback", tasks, errors, ProgressManager.getInstance().getProgressIndicator(), reportProgress);
+    reportProgress.run();
+
+    for (RevertedFile file : reverted) {
+      finishRevert(file);
+    }
+  }
+
+  /**
+   * Rollback with the main session: the items of every folder are read once,
+   * all the files are resolved, and only then checked out one by one.
+   */
+  private void rollbackSequentially(Map<String, List<RevertedFile>> filesByFolder,
+                                    List<VcsException> errors,
+                                    RollbackProgressListener listener) {
+    try {
+      host.refreshIfStale();
+    }
+    catch (VcsException e) {
+      errors.add(e);
+      return;
+    }
+
+    //  The revisions of the items must be the ones on the server now.
+    Map<RevertedFile, com.starbase.starteam.File> items = new LinkedHashMap<RevertedFile, com.starbase.starteam.File>();
+    for (Map.Entry<String, List<RevertedFile>> entry : filesByFolder.entrySet()) {
+      Folder folder = host.findFolder(entry.getKey());
+      if (folder != null) {
+        host.refreshFiles(folder);
+      }
+
+      for (RevertedFile file : entry.getValue()) {
+        String starteamFilePath = StarteamChangeProvider.getSTCanonicPath(file.file);
+        com.starbase.starteam.File starteamFile = host.findFile(starteamFilePath);
+        if (starteamFile == null) {
+          listener.accept(file.change);
+          errors.add(new VcsException(StarteamBundle.message("exception.text.configuration.file.not.found", starteamFilePath)));
+        }
+        else {
+          items.put(file, starteamFile);
+        }
+      }
+    }
+
+    for (Map.Entry<RevertedFile, com.starbase.starteam.File> entry : items.entrySet()) {
+      listener.accept(entry.getKey().change);
+      try {
+        host.revertItem(entry.getValue());
+        finishRevert(entry.getKey());
+      }
       catch (VcsException e) {
         errors.add(e);
       }
     }
   }
 
+  private void finishRevert(RevertedFile file) {
+    if (file.renamedTo != null) {
+      host.renamedFiles.remove(file.renamedTo.getPath());
+      FileUtil.delete(file.renamedTo.getIOFile());
+    }
+  }
+
+  /**
+   * A file to be checked out by the rollback.
+   */
+  private static class RevertedFile {
+    public final Change change;
+    public final FilePath file;
+    /** New location of a renamed file, deleted once the original is checked out. */
+    @Nullable public final FilePath renamedTo;
+
+    public RevertedFile(Change change, FilePath file, @Nullable FilePath renamedTo) {
+      this.change = change;
+      this.file = file;
+      this.renamedTo = renamedTo;
+    }
+  }
+
+  /**
+   * Checkout of the rolled back files of one folder within a server session.
+   * The changes are queued as the files are started, to be reported to the
+   * progress listener by the calling thread.
+   */
+  private class RollbackTask implements StarteamSessionPool.SessionTask {
+    private final String folderPath;
+    private final List<RevertedFile> files;
+    private final List<RevertedFile> reverted;
+    private final List<VcsException> errors;
+    private final Queue<Change> started;
+
+    public RollbackTask(String folderPath, List<RevertedFile> files, List<RevertedFile> reverted, List<VcsException> errors,
+                        Queue<Change> started) {
+      this.folderPath = folderPath;
+      this.files = files;
+      this.reverted = reverted;
+      this.errors = errors;
+      this.started = started;
+    }
+
+    public void run(StarteamSession session) throws VcsException {
+      Folder folder = session.findFolder(folderPath);
+      if (folder == null) {
+        session.refreshFolders();
+        folder = session.findFolder(folderPath);
+        if (folder == null) {
+          throw new VcsException(StarteamBundle.message("exception.text.configuration.folder.not.found", folderPath));
+        }
+      }
+      session.refreshFiles(folder);
+
+      for (RevertedFile file : files) {
+        started.add(file.change);
+        String starteamFilePath = StarteamChangeProvider.getSTCanonicPath(file.file);
+        try {
+          com.starbase.starteam.File starteamFile = session.findFile(starteamFilePath);
+          if (starteamFile == null) {
+            throw new VcsException(StarteamBundle.message("exception.text.configuration.file.not.found", starteamFilePath));
+          }
+
+          host.revertItem(starteamFile);
+          synchronized (reverted) {
+            reverted.add(file);
+          }
+        }
+        catch (VcsException e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      }
+    }
+  }
+
   public List<VcsException> scheduleMissingFileForDeletion(List<FilePath> files) {
     List<File> ioFiles = ChangesUtil.filePathsToFiles(files);
 
@@ -368,7 +768,7 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
       Folder folder = host.findFolder(starteamPath);
       if ((folder != null) == isDir) {
         if (folder != null) {
-          folder.remove();
+          host.removeFolder(folder);
 
           String ignoredPath = starteamPath.substring(0, file.getParentFile().getPath().length()) + File.separatorChar + StarteamVcs
             .RENAMED_FOLDER_PREFIX + file.getName();
@@ -376,7 +776,7 @@ public class StarteamCheckinEnvironment implements CheckinEnvironment, RollbackE
         }
         else {
           com.starbase.starteam.File starteamFile = host.findFile(starteamPath);
-          if (starteamFile != null) starteamFile.remove();
+          if (starteamFile != null) host.removeFile(starteamFile);
         }
 
         String canonicPath = file.getPath().replace(File.separatorChar, '/');
@@ -13,6 +13,7 @@ import com.intellij.util.ArrayUtil;
 import com.starbase.starteam.Project;
 import com.starbase.starteam.Server;
 import com.starbase.starteam.View;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
@@ -43,6 +44,12 @@ public class StarteamConfigurable implements Configurable
   private JPanel optionsPanel;
   private JCheckBox myCheckLockOnCheckout;
   private JCheckBox myCheckUnlockOnCheckin;
+  private JTextField myFldRefreshPeriod;
+  private JTextField myFldServerSessions;
+  private JCheckBox myCheckReadLocalStatus;
+  private JCheckBox myCheckPrefetchContent;
+  private JCheckBox myCheckIndexHistory;
+  private JCheckBox myCheckKeepPristineCopies;
   private File myLastChosenDirectory;
 
   public StarteamConfigurable(com.intellij.openapi.project.Project project ) {
@@ -251,11 +258,19 @@ public class StarteamConfigurable implements Configurable
     myFldWorkingPath.setText( configuration.ALTERNATIVE_WORKING_PATH );
     myCheckLockOnCheckout.setSelected( configuration.LOCK_ON_CHECKOUT );
     myCheckUnlockOnCheckin.setSelected( configuration.UNLOCK_ON_CHECKIN );
+    myFldRefreshPeriod.setText( String.valueOf( configuration.VIEW_REFRESH_PERIOD ) );
+    myFldServerSessions.setText( String.valueOf( configuration.SERVER_SESSIONS ) );
+    myCheckReadLocalStatus.setSelected( configuration.READ_LOCAL_STATUS_REPOSITORY );
+    myCheckPrefetchContent.setSelected( configuration.PREFETCH_CONTENT );
+    myCheckIndexHistory.setSelected( configuration.INDEX_HISTORY );
+    myCheckKeepPristineCopies.setSelected( configuration.KEEP_PRISTINE_COPIES );
   }
 
   public void apply() throws ConfigurationException
   {
-    boolean isChanged = isModified();
+    int refreshPeriod = getNumber( myFldRefreshPeriod, 0, "message.text.configuration.invalid.refresh.period" );
+    int serverSessions = getNumber( myFldServerSessions, 1, "message.text.configuration.invalid.server.sessions" );
+    boolean isChanged = isConnectionModified();
     StarteamConfiguration configuration = myProject.getComponent(StarteamConfiguration.class);
 
     configuration.SERVER = myFldServer.getText();
@@ -267,6 +282,12 @@ public class StarteamConfigurable implements Configurable
     configuration.ALTERNATIVE_WORKING_PATH = myFldWorkingPath.getText();
     configuration.LOCK_ON_CHECKOUT = myCheckLockOnCheckout.isSelected();
     configuration.UNLOCK_ON_CHECKIN = myCheckUnlockOnCheckin.isSelected(); 
+    configuration.VIEW_REFRESH_PERIOD = refreshPeriod;
+    configuration.SERVER_SESSIONS = serverSessions;
+    configuration.READ_LOCAL_STATUS_REPOSITORY = myCheckReadLocalStatus.isSelected();
+    configuration.PREFETCH_CONTENT = myCheckPrefetchContent.isSelected();
+    configuration.INDEX_HISTORY = myCheckIndexHistory.isSelected();
+    configuration.KEEP_PRISTINE_COPIES = myCheckKeepPristineCopies.isSelected();
 
     if( isChanged )
     {
@@ -300,6 +321,23 @@ public class StarteamConfigurable implements Configurable
   {
     StarteamConfiguration configuration = myProject.getComponent(StarteamConfiguration.class);
 
+    return isConnectionModified() ||
+           !String.valueOf( configuration.VIEW_REFRESH_PERIOD ).equals( myFldRefreshPeriod.getText().trim() ) ||
+           !String.valueOf( configuration.SERVER_SESSIONS ).equals( myFldServerSessions.getText().trim() ) ||
+           (configuration.READ_LOCAL_STATUS_REPOSITORY != myCheckReadLocalStatus.isSelected() ) ||
+           (configuration.PREFETCH_CONTENT != myCheckPrefetchContent.isSelected() ) ||
+           (configuration.INDEX_HISTORY != myCheckIndexHistory.isSelected() ) ||
+           (configuration.KEEP_PRISTINE_COPIES != myCheckKeepPristineCopies.isSelected() );
+  }
+
+  /**
+   * @return true if the settings which require reconnecting to the server
+   *         have been changed.
+   */
+  private boolean isConnectionModified()
+  {
+    StarteamConfiguration configuration = myProject.getComponent(StarteamConfiguration.class);
+
     final boolean equals = configuration.SERVER.equals( myFldServer.getText() ) &&
                            configuration.PORT == Integer.parseInt( myFldPort.getText() ) &&
                            configuration.USER.equals( myFldUser.getText() ) &&
@@ -311,4 +349,19 @@ public class StarteamConfigurable implements Configurable
                            (configuration.UNLOCK_ON_CHECKIN == myCheckUnlockOnCheckin.isSelected() ); 
     return !equals;
   }
+
+  private static int getNumber( JTextField field, int min, @NonNls String errorKey ) throws ConfigurationException
+  {
+    try
+    {
+      int value = Integer.parseInt( field.getText().trim() );
+      if( value >= min )
+        return value;
+    }
+    catch( NumberFormatException e )
+    {
+      LOG.debug( e );
+    }
+    throw new ConfigurationException( StarteamBundle.message( errorKey ) );
+  }
 }
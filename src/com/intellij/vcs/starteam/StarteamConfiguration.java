@@ -16,6 +16,18 @@ public class StarteamConfiguration extends AbstractProjectComponent implements J
   public String ALTERNATIVE_WORKING_PATH = "";
   public boolean LOCK_ON_CHECKOUT = false;
   public boolean UNLOCK_ON_CHECKIN = false;
+  /** Period (ms) after a full view refresh during which operations only refresh folders marked stale. */
+  public int VIEW_REFRESH_PERIOD = 5000;
+  /** Guess the obvious file statuses from the time stamps in the local ".sbas" status repository without asking the server. */
+  public boolean READ_LOCAL_STATUS_REPOSITORY = false;
+  /** Fetch repository revisions of modified files in background so that diffs open without waiting for the server. */
+  public boolean PREFETCH_CONTENT = true;
+  /** Keep a local index of the revisions of all the files in the view, updated in background. */
+  public boolean INDEX_HISTORY = false;
+  /** Number of additional server logins used to work on many files at once (status, check in, rollback); 1 handles them one by one. */
+  public int SERVER_SESSIONS = 3;
+  /** Keep a local copy of the files checked out (256 MB at most) so that rollback to the unchanged tip needs no server. */
+  public boolean KEEP_PRISTINE_COPIES = true;
 
   protected StarteamConfiguration(Project project) {
     super(project);
@@ -0,0 +1,123 @@
+package com.intellij.vcs.starteam;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Content of a file revision retrieved from the repository. Small contents are
+ * held in memory, large ones are spilled to a temporary file (see
+ * {@link SpillingOutputStream}) and have to be read as a stream; call
+ * {@link #dispose} when the content is no longer needed to remove the file.
+ */
+public class StarteamContent
+{
+  /** Size above which contents are kept in a temporary file instead of memory. */
+  static final long SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @Nullable private final byte[] myBytes;
+  @Nullable private final File   myFile;
+
+  StarteamContent( byte[] bytes )
+  {
+    myBytes = bytes;
+    myFile = null;
+  }
+
+  StarteamContent( File file )
+  {
+    myBytes = null;
+    myFile = file;
+  }
+
+  public boolean isInMemory()  {  return myBytes != null;  }
+
+  /**
+   * @return the content, or null if it was spilled to a file.
+   */
+  @Nullable
+  public byte[] getBytes()     {  return myBytes;  }
+
+  /**
+   * @return the temporary file holding the content, or null if the content is
+   *         held in memory.
+   */
+  @Nullable
+  public File getFile()        {  return myFile;   }
+
+  public long getLength()
+  {
+    return myBytes != null ? myBytes.length : myFile.length();
+  }
+
+  public InputStream openStream() throws IOException
+  {
+    if( myBytes != null )
+      return new ByteArrayInputStream( myBytes );
+    return new BufferedInputStream( new FileInputStream( myFile ), BUFFER_SIZE );
+  }
+
+  /**
+   * Decode the content directly from its storage, without an intermediate
+   * copy of the whole byte content.
+   */
+  public String loadText( Charset charset ) throws IOException
+  {
+    if( myBytes != null )
+      return new String( myBytes, charset.name() );
+
+    StringBuilder text = new StringBuilder( (int)Math.min( getLength(), Integer.MAX_VALUE ) );
+    Reader reader = new InputStreamReader( openStream(), charset );
+    try
+    {
+      char[] buffer = new char[ BUFFER_SIZE ];
+      int count;
+      while( (count = reader.read( buffer )) != -1 )
+        text.append( buffer, 0, count );
+    }
+    finally
+    {
+      reader.close();
+    }
+    return text.toString();
+  }
+
+  /**
+   * Compare the content with the stream; the stream is closed afterwards.
+   */
+  public boolean contentEquals( InputStream other ) throws IOException
+  {
+    InputStream in = openStream();
+    try
+    {
+      other = new BufferedInputStream( other, BUFFER_SIZE );
+      int b;
+      do
+      {
+        b = in.read();
+        if( b != other.read() )
+          return false;
+      }
+      while( b != -1 );
+      return true;
+    }
+    finally
+    {
+      in.close();
+      other.close();
+    }
+  }
+
+  public void dispose()
+  {
+    if( myFile != null )
+    {
+      //  The file may have been made read-only to be shown in a diff.
+      myFile.setWritable( true );
+      myFile.delete();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.intellij.vcs.starteam;
+
+import com.starbase.starteam.Item;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contents of file revisions shared by diff, history and change views. The
+ * entries are keyed by the item's object ID and revision number (so a cached
+ * revision never becomes stale), the total size of the cached contents is
+ * bounded and the least recently used entries are evicted first.
+ * <p/>
+ * Cached arrays are shared between callers and must not be modified.
+ */
+class StarteamContentCache
+{
+  private static final long DEFAULT_LIMIT = 32 * 1024 * 1024;
+
+  private final long myLimit;
+
+  //  Access-ordered: iteration starts with the least recently used entry.
+  private final LinkedHashMap<String, byte[]> myEntries = new LinkedHashMap<String, byte[]>( 16, 0.75f, true );
+  private long mySize = 0;
+
+  public StarteamContentCache()
+  {
+    this( DEFAULT_LIMIT );
+  }
+
+  /**
+   * @param limit upper bound of the total size of the cached contents.
+   */
+  StarteamContentCache( long limit )
+  {
+    myLimit = limit;
+  }
+
+  @Nullable
+  public byte[] get( Item item )
+  {
+    return get( getKey( item ) );
+  }
+
+  public boolean contains( Item item )
+  {
+    return contains( getKey( item ) );
+  }
+
+  public void put( Item item, byte[] content )
+  {
+    put( getKey( item ), content );
+  }
+
+  @Nullable
+  synchronized byte[] get( String key )
+  {
+    return myEntries.get( key );
+  }
+
+  synchronized boolean contains( String key )
+  {
+    return myEntries.containsKey( key );
+  }
+
+  synchronized void put( String key, byte[] content )
+  {
+    if( content.length > myLimit )
+      return;
+
+    byte[] old = myEntries.put( key, content );
+    if( old != null )
+      mySize -= old.length;
+    mySize += content.length;
+
+    Iterator<Map.Entry<String, byte[]>> it = myEntries.entrySet().iterator();
+    while( mySize > myLimit && it.hasNext() )
+    {
+      mySize -= it.next().getValue().length;
+      it.remove();
+    }
+  }
+
+  public synchronized void clear()
+  {
+    myEntries.clear();
+    mySize = 0;
+  }
+
+  private static String getKey( Item item )
+  {
+    return item.getObjectID() + ":" + item.getRevisionNumber();
+  }
+}
@@ -0,0 +1,54 @@
+package com.intellij.vcs.starteam;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 digests of file contents, used to tell whether a local file differs
+ * from a repository revision without transferring it.
+ */
+class StarteamDigest
+{
+  @NonNls private static final String ALGORITHM = "MD5";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private StarteamDigest() {}
+
+  public static byte[] md5( File file ) throws IOException
+  {
+    MessageDigest digest = createDigest();
+    InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+    try
+    {
+      byte[] buffer = new byte[ BUFFER_SIZE ];
+      int read;
+      while( (read = in.read( buffer )) > 0 )
+        digest.update( buffer, 0, read );
+    }
+    finally
+    {
+      in.close();
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest createDigest()
+  {
+    try
+    {
+      return MessageDigest.getInstance( ALGORITHM );
+    }
+    catch( NoSuchAlgorithmException e )
+    {
+      //  Every Java platform is required to support MD5.
+      throw new IllegalStateException( e );
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.vcs.annotate.AnnotationListener;
+import com.intellij.openapi.vcs.annotate.AnnotationSourceSwitcher;
+import com.intellij.openapi.vcs.annotate.FileAnnotation;
+import com.intellij.openapi.vcs.annotate.LineAnnotationAspect;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.text.DateFormatUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Annotation of a file revision as computed by {@link StarteamAnnotationProvider}.
+ */
+class StarteamFileAnnotation implements FileAnnotation
+{
+  private final VirtualFile file;
+  private final StarteamAnnotationData data;
+  private final List<AnnotationListener> listeners = new ArrayList<AnnotationListener>();
+
+  private final LineAnnotationAspect[] aspects = new LineAnnotationAspect[] {
+    new Aspect( LineAnnotationAspect.REVISION )
+    {
+      protected String getValue( StarteamAnnotationData.Revision revision ) {  return String.valueOf( revision.number );  }
+    },
+    new Aspect( LineAnnotationAspect.DATE )
+    {
+      protected String getValue( StarteamAnnotationData.Revision revision ) {  return DateFormatUtil.formatPrettyDate( revision.date );  }
+    },
+    new Aspect( LineAnnotationAspect.AUTHOR )
+    {
+      protected String getValue( StarteamAnnotationData.Revision revision ) {  return revision.author;  }
+    }
+  };
+
+  public StarteamFileAnnotation( VirtualFile file, StarteamAnnotationData data )
+  {
+    this.file = file;
+    this.data = data;
+  }
+
+  public void addListener( AnnotationListener listener )     {  listeners.add( listener );     }
+  public void removeListener( AnnotationListener listener )  {  listeners.remove( listener );  }
+  public void dispose()                                      {  listeners.clear();             }
+
+  public LineAnnotationAspect[] getAspects()  {  return aspects;  }
+  public String getAnnotatedContent()         {  return data.content;  }
+  public int getLineCount()                   {  return data.lineRevisions.length;  }
+  public VirtualFile getFile()                {  return file;  }
+
+  @Nullable
+  public String getToolTip( int lineNumber )
+  {
+    StarteamAnnotationData.Revision revision = getRevision( lineNumber );
+    if( revision == null )
+      return null;
+    return StarteamBundle.message( "annotation.tooltip", String.valueOf( revision.number ), revision.author,
+                                   DateFormatUtil.formatPrettyDateTime( revision.date ), revision.comment );
+  }
+
+  @Nullable
+  public VcsRevisionNumber getLineRevisionNumber( int lineNumber )
+  {
+    StarteamAnnotationData.Revision revision = getRevision( lineNumber );
+    return revision == null ? null : new VcsRevisionNumber.Int( revision.number );
+  }
+
+  @Nullable
+  public Date getLineDate( int lineNumber )
+  {
+    StarteamAnnotationData.Revision revision = getRevision( lineNumber );
+    return revision == null ? null : revision.date;
+  }
+
+  @Nullable
+  public VcsRevisionNumber originalRevision( int lineNumber )
+  {
+    return getLineRevisionNumber( lineNumber );
+  }
+
+  public VcsRevisionNumber getCurrentRevision()
+  {
+    return new VcsRevisionNumber.Int( data.annotatedRevision );
+  }
+
+  //  The annotation may be restored from the disk without the history at hand.
+  @Nullable
+  public List<VcsFileRevision> getRevisions()        {  return null;   }
+  public boolean revisionsNotEmpty()                 {  return false;  }
+
+  @Nullable
+  public AnnotationSourceSwitcher getAnnotationSourceSwitcher()  {  return null;  }
+
+  @Nullable
+  private StarteamAnnotationData.Revision getRevision( int lineNumber )
+  {
+    if( lineNumber < 0 || lineNumber >= data.lineRevisions.length )
+      return null;
+    return data.revisions[ data.lineRevisions[ lineNumber ] ];
+  }
+
+  private abstract class Aspect implements LineAnnotationAspect
+  {
+    private final String id;
+
+    private Aspect( String id )
+    {
+      this.id = id;
+    }
+
+    protected abstract String getValue( StarteamAnnotationData.Revision revision );
+
+    public String getValue( int line )
+    {
+      StarteamAnnotationData.Revision revision = getRevision( line );
+      return revision == null ? "" : getValue( revision );
+    }
+
+    @Nullable
+    public String getTooltipText( int line )  {  return getToolTip( line );  }
+    public String getId()                     {  return id;    }
+    public boolean isShowByDefault()          {  return true;  }
+  }
+}
@@ -0,0 +1,80 @@
+package com.intellij.vcs.starteam;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Item;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histories of the files keyed by the item ID, shared by the history view and
+ * the annotations. An entry is reused for as long as the revision of the view
+ * item stays the same, so asking again for the history of a folder only
+ * fetches the histories of the files changed since.
+ */
+class StarteamHistoryCache
+{
+  private static final int MAX_ENTRIES = 5000;
+
+  private final Map<Integer, Entry> myEntries = new LinkedHashMap<Integer, Entry>( 16, 0.75f, true )
+  {
+    protected boolean removeEldestEntry( Map.Entry<Integer, Entry> eldest )
+    {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  /**
+   * @return revisions of the file, newest first.
+   */
+  public Item[] getHistory( File file )
+  {
+    Integer id = file.getID();
+    int tip = file.getRevisionNumber();
+    synchronized( myEntries )
+    {
+      Entry entry = myEntries.get( id );
+      if( entry != null && entry.tip == tip )
+        return entry.history;
+    }
+
+    //  Fetched outside the lock - histories of the files of a folder are
+    //  requested concurrently.
+    Item[] history = file.getHistory();
+    Arrays.sort( history, new Comparator<Item>()
+    {
+      public int compare( Item o1, Item o2 )
+      {
+        return o2.getRevisionNumber() - o1.getRevisionNumber();
+      }
+    });
+
+    synchronized( myEntries )
+    {
+      myEntries.put( id, new Entry( tip, history ) );
+    }
+    return history;
+  }
+
+  public void clear()
+  {
+    synchronized( myEntries )
+    {
+      myEntries.clear();
+    }
+  }
+
+  private static class Entry
+  {
+    private final int    tip;
+    private final Item[] history;
+
+    private Entry( int tip, Item[] history )
+    {
+      this.tip = tip;
+      this.history = history;
+    }
+  }
+}
@@ -0,0 +1,340 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vcs.VcsException;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Revision metadata of all the files in the view, kept on disk under the IDE
+ * system directory and searched without contacting the server.
+ * <p/>
+ * The index is updated in background on a pooled thread with a session taken
+ * from {@link StarteamSessionPool}, so the main connection is never held by
+ * it: only the files modified after the newest revision indexed so far have
+ * their history requested again.
+ */
+public class StarteamHistoryIndex
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamHistoryIndex" );
+
+  private static final int VERSION = 1;
+  @NonNls private static final String INDEX_FILE = "history.index";
+
+  private final StarteamVcs host;
+
+  //  Revisions keyed by the item ID, guarded by myLock.
+  private final Object myLock = new Object();
+  private Map<Integer, Entry[]> myEntries = new HashMap<Integer, Entry[]>();
+  private long myIndexedUpTo = 0;
+  private java.io.File myLoadedFrom;
+
+  private final AtomicBoolean myUpdating = new AtomicBoolean( false );
+  private volatile boolean myCancelled = false;
+
+  public StarteamHistoryIndex( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  /**
+   * Start the update of the index unless one is running already.
+   */
+  public void scheduleUpdate()
+  {
+    if( !myUpdating.compareAndSet( false, true ) )
+      return;
+
+    myCancelled = false;
+    try
+    {
+      ApplicationManager.getApplication().executeOnPooledThread( new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            host.getSessionPool().run( new StarteamSessionPool.SessionTask()
+            {
+              public void run( StarteamSession session ) throws VcsException
+              {
+                try
+                {
+                  update( session );
+                }
+                catch( IOException e )
+                {
+                  throw new VcsException( e );
+                }
+              }
+            });
+          }
+          catch( Exception e )
+          {
+            //  The next update starts over from the last saved state.
+            LOG.debug( e );
+          }
+          finally
+          {
+            myUpdating.set( false );
+          }
+        }
+      });
+    }
+    catch( RuntimeException e )
+    {
+      myUpdating.set( false );
+      throw e;
+    }
+  }
+
+  /**
+   * Stop the update; called when the connection to the server is closed.
+   */
+  public void shutdown()
+  {
+    myCancelled = true;
+  }
+
+  /**
+   * Search the revisions indexed so far; every criterion is optional.
+   * @param author  part of the author name, case insensitive.
+   * @param comment part of the comment, case insensitive.
+   * @return matching revisions, newest first.
+   */
+  public List<Entry> search( @Nullable String author, @Nullable String comment, @Nullable Date from, @Nullable Date to )
+  {
+    String authorPattern = (author == null) ? null : author.toLowerCase();
+    String commentPattern = (comment == null) ? null : comment.toLowerCase();
+
+    List<Entry> result = new ArrayList<Entry>();
+    synchronized( myLock )
+    {
+      ensureLoaded( getIndexFile() );
+      for( Entry[] entries : myEntries.values() )
+      {
+        for( Entry entry : entries )
+        {
+          if( (authorPattern == null || entry.author.toLowerCase().contains( authorPattern )) &&
+              (commentPattern == null || entry.comment.toLowerCase().contains( commentPattern )) &&
+              (from == null || entry.modified >= from.getTime()) &&
+              (to == null || entry.modified <= to.getTime()) )
+            result.add( entry );
+        }
+      }
+    }
+
+    Collections.sort( result, new Comparator<Entry>()
+    {
+      public int compare( Entry o1, Entry o2 )
+      {
+        return o1.modified < o2.modified ? 1 : (o1.modified == o2.modified ? 0 : -1);
+      }
+    });
+    return result;
+  }
+
+  private void update( StarteamSession session ) throws IOException
+  {
+    java.io.File indexFile = getIndexFile();
+    long since;
+    synchronized( myLock )
+    {
+      ensureLoaded( indexFile );
+      since = myIndexedUpTo;
+    }
+
+    //  A session may have been idle in the pool for a while.
+    session.refreshFolders();
+    Map<Integer, Entry[]> updated = new HashMap<Integer, Entry[]>();
+    long upTo = collect( session, session.getRootFolder(), "", since, updated );
+    if( myCancelled )
+      return;
+
+    synchronized( myLock )
+    {
+      //  The view may have been switched meanwhile.
+      if( !indexFile.equals( myLoadedFrom ) )
+        return;
+
+      myEntries.putAll( updated );
+      myIndexedUpTo = Math.max( myIndexedUpTo, upTo );
+      save( indexFile );
+    }
+  }
+
+  /**
+   * @return modification time of the newest revision seen.
+   */
+  private long collect( StarteamSession session, Folder folder, String path, long since, Map<Integer, Entry[]> updated )
+  {
+    long upTo = since;
+    session.refreshFiles( folder );
+    for( File file : session.getFiles( folder ) )
+    {
+      if( myCancelled )
+        return upTo;
+
+      long modified = file.getModifiedTime().getLongValue();
+      if( modified <= since )
+        continue;
+
+      //  Not through the history cache - the items of the session must not be
+      //  handed out to the history view.
+      String filePath = path + file.getName();
+      Item[] history = file.getHistory();
+      Entry[] entries = new Entry[ history.length ];
+      for( int i = 0; i < history.length; i++ )
+      {
+        entries[ i ] = createEntry( file.getID(), filePath, history[ i ] );
+        upTo = Math.max( upTo, entries[ i ].modified );
+      }
+      updated.put( file.getID(), entries );
+    }
+
+    for( Folder subFolder : session.getSubFolders( folder ) )
+    {
+      if( myCancelled )
+        return upTo;
+      upTo = Math.max( upTo, collect( session, subFolder, path + subFolder.getName() + "/", since, updated ) );
+    }
+    return upTo;
+  }
+
+  private static Entry createEntry( int itemId, String path, Item revision )
+  {
+    String author = StarteamUserDirectory.getInstance().getUserName( revision.getServer(), revision.getModifiedBy() );
+    String comment = revision.getComment();
+    return new Entry( itemId, path, revision.getRevisionNumber() + 1,
+                      author != null ? author : StarteamBundle.message( "unknown.author.name" ),
+                      comment != null ? comment : "",
+                      revision.getModifiedTime().getLongValue() );
+  }
+
+  private java.io.File getIndexFile()
+  {
+    return new java.io.File( host.getSystemDirectory(), INDEX_FILE );
+  }
+
+  //---------------------------------------------------------------------------
+  //  Storage; the whole index is rewritten after every update.
+  //---------------------------------------------------------------------------
+
+  private void ensureLoaded( java.io.File indexFile )
+  {
+    if( indexFile.equals( myLoadedFrom ) )
+      return;
+
+    myLoadedFrom = indexFile;
+    myEntries = new HashMap<Integer, Entry[]>();
+    myIndexedUpTo = 0;
+    if( !indexFile.isFile() )
+      return;
+
+    try
+    {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+      try
+      {
+        if( in.readInt() != VERSION )
+          return;
+
+        long indexedUpTo = in.readLong();
+        int items = in.readInt();
+        Map<Integer, Entry[]> entries = new HashMap<Integer, Entry[]>( items * 2 );
+        for( int i = 0; i < items; i++ )
+        {
+          int itemId = in.readInt();
+          String path = in.readUTF();
+          Entry[] revisions = new Entry[ in.readInt() ];
+          for( int j = 0; j < revisions.length; j++ )
+            revisions[ j ] = new Entry( itemId, path, in.readInt(), in.readUTF(), in.readUTF(), in.readLong() );
+          entries.put( itemId, revisions );
+        }
+        myEntries = entries;
+        myIndexedUpTo = indexedUpTo;
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch( IOException e )
+    {
+      //  Damaged - the index is built anew.
+      LOG.debug( e );
+    }
+  }
+
+  private void save( java.io.File indexFile ) throws IOException
+  {
+    indexFile.getParentFile().mkdirs();
+    java.io.File temp = new java.io.File( indexFile.getPath() + ".tmp" );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+    try
+    {
+      out.writeInt( VERSION );
+      out.writeLong( myIndexedUpTo );
+      out.writeInt( myEntries.size() );
+      for( Map.Entry<Integer, Entry[]> item : myEntries.entrySet() )
+      {
+        Entry[] revisions = item.getValue();
+        out.writeInt( item.getKey() );
+        out.writeUTF( revisions.length > 0 ? revisions[ 0 ].path : "" );
+        out.writeInt( revisions.length );
+        for( Entry entry : revisions )
+        {
+          out.writeInt( entry.revision );
+          out.writeUTF( entry.author );
+          out.writeUTF( truncate( entry.comment ) );
+          out.writeLong( entry.modified );
+        }
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+
+    //  Replace the index only when it is written completely.
+    indexFile.delete();
+    if( !temp.renameTo( indexFile ) )
+      throw new IOException( "Can not write " + indexFile.getPath() );
+  }
+
+  //  DataOutput.writeUTF is limited to 64K bytes; comments are never near it,
+  //  but be safe with the encoded length of up to 3 bytes per char.
+  private static String truncate( String s )
+  {
+    return s.length() > 20000 ? s.substring( 0, 20000 ) : s;
+  }
+
+  public static class Entry
+  {
+    public final int    itemId;
+    /** Path of the file relative to the view root, '/' separated. */
+    public final String path;
+    public final int    revision;
+    public final String author;
+    public final String comment;
+    public final long   modified;
+
+    public Entry( int itemId, String path, int revision, String author, String comment, long modified )
+    {
+      this.itemId = itemId;
+      this.path = path;
+      this.revision = revision;
+      this.author = author;
+      this.comment = comment;
+      this.modified = modified;
+    }
+  }
+}
@@ -17,23 +17,25 @@
 package com.intellij.vcs.starteam;
 
 import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.history.*;
 import com.intellij.util.ui.ColumnInfo;
 import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
 import com.starbase.starteam.Item;
-import com.starbase.starteam.User;
 import com.starbase.starteam.vts.comm.CommandException;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * Created by IntelliJ IDEA.
@@ -42,6 +44,10 @@ import java.util.List;
  */
 public class StarteamHistoryProvider implements VcsHistoryProvider
 {
+  //  Number of revisions reported to the history view between the checks
+  //  for cancellation.
+  private static final int HISTORY_PAGE_SIZE = 100;
+
   private final StarteamVcs host;
 
   public StarteamHistoryProvider( StarteamVcs host )
@@ -54,77 +60,220 @@ public class StarteamHistoryProvider implements VcsHistoryProvider
   public String getHelpId() {  return null;  }
 
   public boolean supportsHistoryForDirectories() {
-    return false;
+    return true;
+  }
+
+  /**
+   * History of a directory shows the revisions of many files, so it has the
+   * path of the file in a column of its own.
+   */
+  public VcsDependentHistoryComponents getUICustomization(final VcsHistorySession session, JComponent forShortcutRegistration) {
+    if (session instanceof StarteamDirectoryHistorySession) {
+      return VcsDependentHistoryComponents.createOnlyColumns(new ColumnInfo[]{ PATH_COLUMN });
+    }
+    return VcsDependentHistoryComponents.createOnlyColumns(new ColumnInfo[0]);
   }
 
-  public VcsDependentHistoryComponents getUICustomization(final VcsHistorySession session, JComponent forShortcutRegistration) {  return VcsDependentHistoryComponents.createOnlyColumns(new ColumnInfo[0]);   }
   public AnAction[] getAdditionalActions(final Runnable refresher) {  return new AnAction[0];   }
   public boolean isDateOmittable() {  return false;  }
 
   public VcsHistorySession createSessionFor( FilePath filePath ) throws VcsException
   {
-    final File file;
+    return createSession( filePath, new ArrayList<VcsFileRevision>( getRevisions( filePath ) ) );
+  }
+
+  /**
+   * The session is reported empty right away and the revisions follow it
+   * page by page, newest first, so that the history view is shown before all
+   * the revisions are delivered.
+   */
+  public void reportAppendableHistory(FilePath path, VcsAppendableHistorySessionPartner partner) throws VcsException {
+    partner.reportCreatedEmptySession( createSession( path, new ArrayList<VcsFileRevision>() ) );
+
+    List<StarteamFileRevision> revisions = getRevisions( path );
+    for( int i = 0; i < revisions.size(); i++ )
+    {
+      if( i % HISTORY_PAGE_SIZE == 0 )
+        ProgressManager.checkCanceled();
+      partner.acceptRevision( revisions.get( i ) );
+    }
+    partner.finished();
+  }
+
+  private VcsAbstractHistorySession createSession( FilePath filePath, List<VcsFileRevision> revisions )
+  {
+    if( filePath.isDirectory() )
+      return new StarteamDirectoryHistorySession( revisions );
+    return new StarteamHistorySession( revisions, filePath.getPath() );
+  }
+
+  /**
+   * @return revisions of the file, or of all the files under the directory,
+   *         newest first.
+   */
+  private List<StarteamFileRevision> getRevisions( FilePath filePath ) throws VcsException
+  {
+    if( filePath.isDirectory() )
+      return getFolderRevisions( findFolder( filePath ) );
+
+    Item[] items = host.getHistoryCache().getHistory( findFile( filePath ) );
+    List<StarteamFileRevision> revisions = new ArrayList<StarteamFileRevision>( items.length );
+    for( int i = 0; i < items.length; i++ )
+      revisions.add( new StarteamFileRevision( items, i, null ) );
+    return revisions;
+  }
+
+  /**
+   * Histories of the files are requested concurrently, on no more threads
+   * than there are server sessions allowed, and merged into one timeline by
+   * the modification time. Histories of the files not changed since the last
+   * request are taken from the history cache.
+   */
+  private List<StarteamFileRevision> getFolderRevisions( Folder folder ) throws VcsException
+  {
+    final List<FolderFile> files = new ArrayList<FolderFile>();
+    collectFiles( folder, "", files );
+
+    ParallelTasks tasks = new ParallelTasks( "StarTeam history", host.getConfiguration().SERVER_SESSIONS );
+    for( final FolderFile file : files )
+    {
+      tasks.submit( new Runnable() {
+        public void run()
+        {
+          //  Held here rather than looked up again - the cache may evict the
+          //  entries of a large tree before the merge.
+          file.history = host.getHistoryCache().getHistory( file.file );
+        }
+      });
+    }
     try
     {
-      file = host.findFile( filePath.getPath() );
+      tasks.await( ProgressManager.getInstance().getProgressIndicator() );
     }
-    catch( CommandException e )
+    catch( ProcessCanceledException e )
+    {
+      throw e;
+    }
+    catch( RuntimeException e )
     {
+      //  SDK reports the failures of the requests with unchecked exceptions.
       throw new VcsException( e );
     }
+    return merge( files );
+  }
 
-    if( file != null )
+  /**
+   * Histories are newest first each, so the timeline is built by taking the
+   * newest of their heads until all of them are used up.
+   */
+  private List<StarteamFileRevision> merge( List<FolderFile> files )
+  {
+    PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>( Math.max( 1, files.size() ), new Comparator<Cursor>()
     {
-      Item[] items = file.getHistory();
-      ArrayList<VcsFileRevision> revisions = new ArrayList<VcsFileRevision>();
-
-      for( Item item : items )
+      public int compare( Cursor o1, Cursor o2 )
       {
-        VcsFileRevision rev = new StarteamFileRevision( item );
-        revisions.add( rev );
+        long t1 = o1.getModifiedTime(), t2 = o2.getModifiedTime();
+        return t1 > t2 ? -1 : ( t1 < t2 ? 1 : 0 );
       }
-      return new StarteamHistorySession(revisions, file);
+    });
+
+    int count = 0;
+    for( FolderFile file : files )
+    {
+      if( file.history.length > 0 )
+        heads.add( new Cursor( file ) );
+      count += file.history.length;
     }
-    else
+
+    List<StarteamFileRevision> revisions = new ArrayList<StarteamFileRevision>( count );
+    while( !heads.isEmpty() )
     {
-      throw new VcsException( "Can not find file: " + filePath.getPath() );
+      Cursor head = heads.poll();
+      revisions.add( new StarteamFileRevision( head.file.history, head.index, head.file.path ) );
+      if( ++head.index < head.file.history.length )
+        heads.add( head );
     }
+    return revisions;
   }
 
-  public void reportAppendableHistory(FilePath path, VcsAppendableHistorySessionPartner partner) throws VcsException {
-    final VcsHistorySession session = createSessionFor(path);
-    partner.reportCreatedEmptySession((VcsAbstractHistorySession) session);
+  private void collectFiles( Folder folder, String prefix, List<FolderFile> files )
+  {
+    for( File file : host.getFiles( folder ) )
+      files.add( new FolderFile( file, prefix + file.getName() ) );
+    for( Folder subFolder : host.getSubFolders( folder ) )
+      collectFiles( subFolder, prefix + subFolder.getName() + "/", files );
   }
 
-  private static VcsRevisionNumber getCurrentRevisionNum( File file )
+  private Folder findFolder( FilePath filePath ) throws VcsException
   {
-    VcsRevisionNumber revNum = VcsRevisionNumber.NULL;
+    final Folder folder;
     try
     {
-      Item[] items = file.getHistory();
-      if( items.length > 0 )
-        revNum = new VcsRevisionNumber.Int( items[ items.length - 1 ].getRevisionNumber() + 1 );
+      folder = host.findFolder( filePath.getPath() );
     }
-    catch( Exception e )
+    catch( CommandException e )
     {
-      //  We can catch e.g. com.starbase.starteam.ItemNotFoundException if we
-      //  try to show history records for the deleted file.
-      revNum = VcsRevisionNumber.NULL;
+      throw new VcsException( e );
     }
-    return revNum;
+
+    if( folder == null )
+      throw new VcsException( "Can not find folder: " + filePath.getPath() );
+    return folder;
   }
 
-    private static class StarteamHistorySession extends VcsAbstractHistorySession {
-      private final File file;
+  private File findFile( FilePath filePath ) throws VcsException
+  {
+    final File file;
+    try
+    {
+      file = host.findFile( filePath.getPath() );
+    }
+    catch( CommandException e )
+    {
+      throw new VcsException( e );
+    }
+
+    if( file == null )
+      throw new VcsException( "Can not find file: " + filePath.getPath() );
+    return file;
+  }
 
-      public StarteamHistorySession(List<VcsFileRevision> revisions, File file) {
+    private class StarteamHistorySession extends VcsAbstractHistorySession {
+      private final String path;
+
+      public StarteamHistorySession(List<VcsFileRevision> revisions, String path) {
         super(revisions);
-        this.file = file;
+        this.path = path;
       }
 
+      /**
+       * The newest of the revisions held by the session, checked against the
+       * revision of the file's view item - neither the history nor the items
+       * of the folder are requested from the server again.
+       */
       @Nullable
       public VcsRevisionNumber calcCurrentRevisionNumber() {
-        return getCurrentRevisionNum(file);
+        int current = -1;
+
+        //  Called from the superclass constructor as well, before the fields
+        //  of this class are set.
+        //  Revisions are held newest first.
+        List<VcsFileRevision> revisions = getRevisionList();
+        if (revisions != null && !revisions.isEmpty()) {
+          current = ((StarteamFileRevision)revisions.get(0)).item.getRevisionNumber();
+        }
+
+        if (path != null) {
+          try {
+            File tip = host.findFile(path);
+            if (tip != null) current = Math.max(current, tip.getRevisionNumber());
+          }
+          catch (Exception e) {
+            //  We can catch e.g. com.starbase.starteam.ItemNotFoundException if we
+            //  try to show history records for the deleted file.
+          }
+        }
+        return current < 0 ? VcsRevisionNumber.NULL : new VcsRevisionNumber.Int(current + 1);
       }
 
       public HistoryAsTreeProvider getHistoryAsTreeProvider() {
@@ -133,18 +282,90 @@ public class StarteamHistoryProvider implements VcsHistoryProvider
 
         @Override
         public VcsHistorySession copy() {
-          return new StarteamHistorySession(getRevisionList(), file);
+          return new StarteamHistorySession(getRevisionList(), path);
         }
     }
 
+    /**
+     * Revisions of all the files under a directory; there is no current
+     * revision of the directory as a whole.
+     */
+    private class StarteamDirectoryHistorySession extends VcsAbstractHistorySession {
+      public StarteamDirectoryHistorySession(List<VcsFileRevision> revisions) {
+        super(revisions);
+      }
+
+      @Nullable
+      public VcsRevisionNumber calcCurrentRevisionNumber() {
+        return VcsRevisionNumber.NULL;
+      }
+
+      public HistoryAsTreeProvider getHistoryAsTreeProvider() {
+        return null;
+      }
+
+      @Override
+      public VcsHistorySession copy() {
+        return new StarteamDirectoryHistorySession(getRevisionList());
+      }
+    }
+
+  private static final ColumnInfo<VcsFileRevision, String> PATH_COLUMN = new ColumnInfo<VcsFileRevision, String>( "Path" )
+  {
+    public String valueOf( VcsFileRevision revision )
+    {
+      return revision instanceof StarteamFileRevision ? ((StarteamFileRevision)revision).path : "";
+    }
+  };
+
+  private static class FolderFile
+  {
+    private final File   file;
+    private final String path;
+    private Item[] history;
+
+    private FolderFile( File file, String path )
+    {
+      this.file = file;
+      this.path = path;
+    }
+  }
+
+  private static class Cursor
+  {
+    private final FolderFile file;
+    private int index = 0;
+
+    private Cursor( FolderFile file )
+    {
+      this.file = file;
+    }
+
+    private long getModifiedTime()
+    {
+      return file.history[ index ].getModifiedTime().getLongValue();
+    }
+  }
+
     private class StarteamFileRevision implements VcsFileRevision
   {
-    private final Item item;
+    private final Item[] history;
+    private final int    index;
+    private final Item   item;
+    @Nullable private final String path;
     private byte[] contents = null;
 
-    public StarteamFileRevision( Item item )
+    /**
+     * @param history all revisions of the file, newest first.
+     * @param path    of the file relative to the directory whose history is
+     *                shown, null for the history of the file itself.
+     */
+    public StarteamFileRevision( Item[] history, int index, @Nullable String path )
     {
-      this.item = item;
+      this.history = history;
+      this.index = index;
+      this.path = path;
+      item = history[ index ];
     }
 
     public VcsRevisionNumber getRevisionNumber() { return new VcsRevisionNumber.Int( item.getRevisionNumber() + 1 ); }
@@ -154,39 +375,32 @@ public class StarteamHistoryProvider implements VcsHistoryProvider
     public String getCommitMessage() { return item.getComment(); }
     public String getAuthor()
     {
-      String userName = StarteamBundle.message( "unknown.author.name" );
-      try
-      {
-        User user = item.getServer().getUser( item.getModifiedBy() );
-        userName = user.getName();
-      }
-      catch( Exception e ){
-        //  Nothing to do - try/catch here is to overcome internal Starteam SDK
-        //  problem - it throws NPE inside <server.getUser(int)>.
-      }
-      return userName;
+      String userName = StarteamUserDirectory.getInstance().getUserName( item.getServer(), item.getModifiedBy() );
+      return userName != null ? userName : StarteamBundle.message( "unknown.author.name" );
     }
 
     public void loadContent() throws VcsException
     {
       if( item instanceof File && contents == null )
       {
-        try
-        {
-          File stFile = (File)item;
+        contents = host.loadContentBytes( (File)item );
 
-          java.io.File file = new java.io.File(
-            FileUtil.getTempDirectory() + java.io.File.separator + Long.toString(System.currentTimeMillis()) + stFile.getName());
-          stFile.checkoutTo(file, Item.LockType.UNCHANGED, true, true, false);
-          contents = FileUtil.loadFileBytes( file );
-        }
-        catch( IOException e )
+        //  Revisions are usually compared with their neighbours; large
+        //  contents are not cached, so they are not prefetched either.
+        if( contents.length <= StarteamContent.SPILL_THRESHOLD )
         {
-          throw new VcsException( e );
+          prefetch( index - 1 );
+          prefetch( index + 1 );
         }
       }
     }
 
+    private void prefetch( int neighbour )
+    {
+      if( neighbour >= 0 && neighbour < history.length && history[ neighbour ] instanceof File )
+        host.getPrefetcher().scheduleRevision( (File)history[ neighbour ] );
+    }
+
     public byte[] getContent() { return contents; }
 
     public int compareTo( Object revision )
@@ -0,0 +1,182 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Path-indexed view of the StarTeam item tree. Subfolders and files of every
+ * visited folder are hashed by their normalized name (case is folded when the
+ * file system is case insensitive), so resolving a path costs one lookup per
+ * path component instead of a scan over all siblings on every level.
+ * <p/>
+ * Indices are keyed by the folder's item ID and must be dropped by the owner
+ * whenever the content of the corresponding folder is changed.
+ */
+class StarteamItemCache
+{
+  private static final char SEP = java.io.File.separatorChar;
+
+  private final Map<Integer, Map<String, Folder>> mySubFolders = new HashMap<Integer, Map<String, Folder>>();
+  private final Map<Integer, Map<String, File>> myFiles = new HashMap<Integer, Map<String, File>>();
+
+  //  Incremented on every invalidation so that an index built concurrently
+  //  with the invalidation is not stored afterwards.
+  private long myModificationCount = 0;
+
+  /**
+   * Reads the items of a folder into an index keyed by the normalized name.
+   */
+  interface IndexLoader<T>
+  {
+    Map<String, T> load();
+  }
+
+  /**
+   * @param root     folder from which the walk starts
+   * @param rootPath normalized path of the root folder
+   * @param path     normalized path of the folder to find; both paths end with
+   *                 the separator char.
+   */
+  @Nullable
+  public Folder findFolder( Folder root, String rootPath, String path )
+  {
+    if( !path.startsWith( rootPath ) ) return null;
+
+    Folder folder = root;
+    int start = rootPath.length();
+    while( folder != null && start < path.length() )
+    {
+      int end = path.indexOf( SEP, start );
+      folder = getSubFolderIndex( folder ).get( path.substring( start, end ) );
+      start = end + 1;
+    }
+    return folder;
+  }
+
+  @Nullable
+  public File findFile( Folder folder, String name )
+  {
+    return getFileIndex( folder ).get( normalizeName( name ) );
+  }
+
+  /**
+   * Drop both subfolder and file indices of the folder, e.g. after a subfolder
+   * has been added, renamed, moved or removed.
+   */
+  public void invalidateFolder( Folder folder )
+  {
+    invalidateFolder( folder.getID() );
+  }
+
+  public void invalidateFiles( Folder folder )
+  {
+    invalidateFiles( folder.getID() );
+  }
+
+  synchronized void invalidateFolder( int folderId )
+  {
+    mySubFolders.remove( folderId );
+    myFiles.remove( folderId );
+    myModificationCount++;
+  }
+
+  synchronized void invalidateFiles( int folderId )
+  {
+    myFiles.remove( folderId );
+    myModificationCount++;
+  }
+
+  public synchronized void invalidateAllFiles()
+  {
+    myFiles.clear();
+    myModificationCount++;
+  }
+
+  public synchronized void clear()
+  {
+    mySubFolders.clear();
+    myFiles.clear();
+    myModificationCount++;
+  }
+
+  private Map<String, Folder> getSubFolderIndex( final Folder folder )
+  {
+    return getSubFolderIndex( folder.getID(), new IndexLoader<Folder>()
+    {
+      public Map<String, Folder> load()
+      {
+        Item[] items = folder.getItems( folder.getTypeNames().FOLDER );
+        Map<String, Folder> index = new HashMap<String, Folder>( items.length * 2 );
+        for( Item item : items )
+        {
+          //  Keep the first match the same way the linear scan did.
+          String key = normalizeName( ((Folder)item).getName() );
+          if( !index.containsKey( key ) )
+            index.put( key, (Folder)item );
+        }
+        return index;
+      }
+    });
+  }
+
+  private Map<String, File> getFileIndex( final Folder folder )
+  {
+    return getFileIndex( folder.getID(), new IndexLoader<File>()
+    {
+      public Map<String, File> load()
+      {
+        Item[] items = folder.getItems( folder.getTypeNames().FILE );
+        Map<String, File> index = new HashMap<String, File>( items.length * 2 );
+        for( Item item : items )
+        {
+          String key = normalizeName( ((File)item).getName() );
+          if( !index.containsKey( key ) )
+            index.put( key, (File)item );
+        }
+        return index;
+      }
+    });
+  }
+
+  Map<String, Folder> getSubFolderIndex( int folderId, IndexLoader<Folder> loader )
+  {
+    return getIndex( mySubFolders, folderId, loader );
+  }
+
+  Map<String, File> getFileIndex( int folderId, IndexLoader<File> loader )
+  {
+    return getIndex( myFiles, folderId, loader );
+  }
+
+  private <T> Map<String, T> getIndex( Map<Integer, Map<String, T>> indices, int folderId, IndexLoader<T> loader )
+  {
+    final long stamp;
+    synchronized( this )
+    {
+      Map<String, T> index = indices.get( folderId );
+      if( index != null ) return index;
+      stamp = myModificationCount;
+    }
+
+    //  Read the items outside the lock - this may require a server round-trip.
+    Map<String, T> index = loader.load();
+
+    synchronized( this )
+    {
+      if( stamp == myModificationCount )
+        indices.put( folderId, index );
+    }
+    return index;
+  }
+
+  private static String normalizeName( String name )
+  {
+    return SystemInfo.isFileSystemCaseSensitive ? name : name.toLowerCase();
+  }
+}
@@ -0,0 +1,93 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.SystemInfo;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known size, modification time and status of the working files. The
+ * status is recorded whenever the plugin has learned it for sure (checkout,
+ * checkin, update, status fetch) and is reused without asking the server for
+ * as long as the size and the modification time of the file on disk stay the
+ * same and the repository items of its folder are not re-read: the statuses
+ * depend on the tip revisions on the server, so the entries of a folder are
+ * dropped whenever its items are refreshed.
+ */
+class StarteamLocalSnapshot
+{
+  public static final int NO_STATUS = -1;
+
+  private final Map<String, Entry> myEntries = new ConcurrentHashMap<String, Entry>();
+
+  public void record( File file, int status )
+  {
+    if( file.isFile() )
+      myEntries.put( getKey( file ), new Entry( file.length(), file.lastModified(), status ) );
+    else
+      forget( file );
+  }
+
+  /**
+   * @return status recorded for the file, or {@link #NO_STATUS} if nothing is
+   *         recorded or the file has been changed on disk since.
+   */
+  public int getStatus( File file )
+  {
+    Entry entry = myEntries.get( getKey( file ) );
+    if( entry == null )
+      return NO_STATUS;
+
+    //  Both values are 0 for the files which do not exist (anymore).
+    if( entry.size != file.length() || entry.lastModified != file.lastModified() )
+      return NO_STATUS;
+
+    return entry.status;
+  }
+
+  public void forget( File file )
+  {
+    myEntries.remove( getKey( file ) );
+  }
+
+  /**
+   * Forget the statuses of the files directly in the folder.
+   */
+  public void forgetFolder( File folder )
+  {
+    String prefix = getKey( folder ) + "/";
+    for( Iterator<String> it = myEntries.keySet().iterator(); it.hasNext(); )
+    {
+      String key = it.next();
+      if( key.startsWith( prefix ) && key.indexOf( '/', prefix.length() ) < 0 )
+        it.remove();
+    }
+  }
+
+  public void clear()
+  {
+    myEntries.clear();
+  }
+
+  private static String getKey( File file )
+  {
+    String path = file.getPath().replace( File.separatorChar, '/' );
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+  private static class Entry
+  {
+    private final long size;
+    private final long lastModified;
+    private final int  status;
+
+    private Entry( long size, long lastModified, int status )
+    {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.status = status;
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.VcsDirtyScope;
+import com.intellij.vcsUtil.VcsUtil;
+import com.starbase.starteam.File;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings the repository revisions of modified files, and the revisions next to
+ * the ones viewed in history, into the content cache in background, so that
+ * the diff does not wait for the download when opened.
+ * <p/>
+ * Prefetching runs on a few low priority threads and is held back while the
+ * content is requested in foreground (see {@link #enterForeground}). The tip
+ * revisions of modified files are looked up on a session from the pool (see
+ * {@link StarteamSessionPool}) rather than the main connection, the history
+ * revisions are the items of the history held by the caller. A file which
+ * leaves the change list is not prefetched anymore.
+ */
+class StarteamPrefetcher
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamPrefetcher" );
+
+  private static final int THREADS = 2;
+
+  private final StarteamVcs host;
+  private final StarteamConfiguration configuration;
+
+  private final Map<String, PrefetchTask> myTasks = new ConcurrentHashMap<String, PrefetchTask>();
+  private final Map<String, PrefetchTask> myRevisionTasks = new ConcurrentHashMap<String, PrefetchTask>();
+  @Nullable private ExecutorService myExecutor;
+
+  private final Object myForegroundLock = new Object();
+  private int myForeground = 0;
+
+  public StarteamPrefetcher( StarteamVcs host, StarteamConfiguration configuration )
+  {
+    this.host = host;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Synchronize the prefetching with the result of the change list update.
+   * @param scope the scope which was processed by the update.
+   * @param paths all modified files found within the scope.
+   */
+  public void update( VcsDirtyScope scope, Collection<String> paths )
+  {
+    //  Files reprocessed within the scope which are not modified anymore have
+    //  left the change list; finished tasks are dropped as well.
+    for( Iterator<Map.Entry<String, PrefetchTask>> it = myTasks.entrySet().iterator(); it.hasNext(); )
+    {
+      Map.Entry<String, PrefetchTask> entry = it.next();
+      if( entry.getValue().isDone() )
+        it.remove();
+      else
+      if( !paths.contains( entry.getKey() ) && scope.belongsTo( VcsUtil.getFilePath( entry.getKey() ) ) )
+      {
+        entry.getValue().cancel();
+        it.remove();
+      }
+    }
+
+    if( !configuration.PREFETCH_CONTENT )
+      return;
+
+    for( String path : paths )
+      schedule( path );
+  }
+
+  private synchronized void schedule( final String path )
+  {
+    PrefetchTask task = myTasks.get( path );
+    if( task != null && !task.isDone() )
+      return;
+
+    //  Contents spilled to a temporary file are not cached anyway.
+    if( new java.io.File( path ).length() > StarteamContent.SPILL_THRESHOLD )
+      return;
+
+    submit( myTasks, path, new PrefetchTask()
+    {
+      protected void prefetch() throws VcsException
+      {
+        host.getSessionPool().run( new StarteamSessionPool.SessionTask()
+        {
+          public void run( StarteamSession session ) throws VcsException
+          {
+            //  The items of a session are as old as its last refresh, re-read
+            //  them to get the tip revision.
+            String stPath = StarteamChangeProvider.getSTCanonicPath( path );
+            File file = session.findFile( stPath );
+            if( file == null )
+              return;
+
+            session.refreshFiles( file.getParentFolder() );
+            file = session.findFile( stPath );
+            if( file != null )
+              host.prefetchContent( file );
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Prefetch the particular revision of a file, e.g. the one next to the
+   * revision being compared in the history view. The revision is an item of
+   * the history already held by the caller (see {@link StarteamHistoryCache}),
+   * so the task only checks its content out - the history is not requested
+   * again.
+   */
+  public synchronized void scheduleRevision( final File revision )
+  {
+    if( !configuration.PREFETCH_CONTENT || host.getContentCache().contains( revision ) )
+      return;
+
+    for( Iterator<PrefetchTask> it = myRevisionTasks.values().iterator(); it.hasNext(); )
+    {
+      if( it.next().isDone() )
+        it.remove();
+    }
+
+    String key = revision.getObjectID() + ":" + revision.getRevisionNumber();
+    if( myRevisionTasks.containsKey( key ) )
+      return;
+
+    submit( myRevisionTasks, key, new PrefetchTask()
+    {
+      protected void prefetch() throws VcsException
+      {
+        host.prefetchContent( revision );
+      }
+    });
+  }
+
+  private void submit( Map<String, PrefetchTask> tasks, String key, PrefetchTask task )
+  {
+    if( myExecutor == null )
+      myExecutor = createExecutor( THREADS );
+
+    tasks.put( key, task );
+    task.future = myExecutor.submit( task );
+  }
+
+  /**
+   * Stop prefetching; called when the connection to the server is closed.
+   */
+  public synchronized void shutdown()
+  {
+    for( PrefetchTask task : myTasks.values() )
+      task.cancel();
+    for( PrefetchTask task : myRevisionTasks.values() )
+      task.cancel();
+    myTasks.clear();
+    myRevisionTasks.clear();
+
+    if( myExecutor != null )
+    {
+      myExecutor.shutdown();
+      myExecutor = null;
+    }
+  }
+
+  /**
+   * Foreground requests for the content hold back the prefetch tasks which
+   * have not started their download yet.
+   */
+  public void enterForeground()
+  {
+    synchronized( myForegroundLock )
+    {
+      myForeground++;
+    }
+  }
+
+  public void exitForeground()
+  {
+    synchronized( myForegroundLock )
+    {
+      myForeground--;
+      myForegroundLock.notifyAll();
+    }
+  }
+
+  private void awaitForeground() throws InterruptedException
+  {
+    synchronized( myForegroundLock )
+    {
+      while( myForeground > 0 )
+        myForegroundLock.wait();
+    }
+  }
+
+  private static ExecutorService createExecutor( int threads )
+  {
+    final AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool( threads, new ThreadFactory()
+    {
+      public Thread newThread( Runnable r )
+      {
+        Thread thread = new Thread( r, "StarTeam prefetch " + counter.incrementAndGet() );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        return thread;
+      }
+    });
+  }
+
+  private abstract class PrefetchTask implements Runnable
+  {
+    private volatile boolean cancelled = false;
+    private volatile Future<?> future;
+
+    protected abstract void prefetch() throws VcsException;
+
+    public void run()
+    {
+      try
+      {
+        awaitForeground();
+        if( !cancelled )
+          prefetch();
+      }
+      catch( InterruptedException e )
+      {
+        //  Nothing to do - the prefetcher is shut down.
+      }
+      catch( Exception e )
+      {
+        //  Prefetching is best effort, the diff will report the problem if
+        //  the content can not be retrieved.
+        LOG.debug( e );
+      }
+    }
+
+    private boolean isDone()
+    {
+      return future != null && future.isDone();
+    }
+
+    private void cancel()
+    {
+      cancelled = true;
+      if( future != null )
+        future.cancel( false );
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.starbase.starteam.Item;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies of the file revisions last checked out, kept under the IDE system
+ * directory so that rolling a file back to the revision which is still the
+ * tip does not need the server.
+ * <p/>
+ * Every item has a copy of its own, so that no copy is shared between items
+ * and replacing one never affects another; next to the copy, the revision
+ * and the MD5 digest of the last checkout are recorded. The copy of the
+ * previous checkout is replaced when a newer one is recorded, and dropped
+ * when a checkin or a removal of the item supersedes it.
+ * <p/>
+ * The copies take up to {@link #MAX_CONTENTS_SIZE} in total; beyond it, the
+ * ones least recently checked out or restored are deleted. The digests are
+ * kept, so that the local files can still be compared with their tips.
+ */
+class StarteamPristineStore
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamPristineStore" );
+
+  private static final int VERSION = 2;
+  @NonNls private static final String STORE_DIR = "pristine";
+  @NonNls private static final String CONTENTS_DIR = "contents";
+  @NonNls private static final String ITEMS_DIR = "items";
+
+  private static final long MAX_CONTENTS_SIZE = 256L * 1024 * 1024;
+
+  private final StarteamVcs host;
+
+  //  Entries read so far keyed by the item's object ID; null values stand for
+  //  the items with nothing recorded.
+  private final Map<Integer, Entry> myEntries = new HashMap<Integer, Entry>();
+
+  //  Total size of the copies, guarded by myEntries; negative until counted.
+  private long myContentsSize = -1;
+
+  public StarteamPristineStore( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  /**
+   * Keep the copy of the file just checked out as the item's revision.
+   */
+  public void record( Item item, java.io.File file )
+  {
+    if( !host.getConfiguration().KEEP_PRISTINE_COPIES || !file.isFile() )
+      return;
+
+    int objectId = item.getObjectID();
+    java.io.File content = getContentFile( objectId );
+    java.io.File temp = new java.io.File( content.getPath() + "." + Thread.currentThread().getId() + ".tmp" );
+    try
+    {
+      byte[] digest = StarteamDigest.md5( file );
+      FileUtil.copy( file, temp );
+
+      //  The entry is dropped before the copy is replaced, so that a failure
+      //  halfway never leaves an entry describing some other content.
+      synchronized( myEntries )
+      {
+        myEntries.put( objectId, null );
+        getEntryFile( objectId ).delete();
+        long replaced = content.length();
+        content.delete();
+        if( !temp.renameTo( content ) )
+          throw new IOException( "Can not rename " + temp + " to " + content );
+        DirectoryTrimmer.touch( content );
+
+        Entry entry = new Entry( item.getRevisionNumber(), digest );
+        writeEntry( getEntryFile( objectId ), entry );
+        myEntries.put( objectId, entry );
+
+        if( myContentsSize >= 0 )
+          myContentsSize += content.length() - replaced;
+        trimContents();
+      }
+    }
+    catch( IOException e )
+    {
+      LOG.debug( e );
+      temp.delete();
+    }
+  }
+
+  /**
+   * Drop the copy of the item, e.g. when a newer revision has been checked in
+   * from the local file.
+   */
+  public void forget( Item item )
+  {
+    int objectId = item.getObjectID();
+    synchronized( myEntries )
+    {
+      myEntries.put( objectId, null );
+      getEntryFile( objectId ).delete();
+
+      java.io.File content = getContentFile( objectId );
+      long length = content.length();
+      if( content.delete() && myContentsSize >= 0 )
+        myContentsSize -= length;
+    }
+  }
+
+  /**
+   * @return digest of the item's revision if it is the one last checked out,
+   *         null otherwise; the copy itself may have been deleted since.
+   */
+  @Nullable
+  public byte[] getDigest( Item item )
+  {
+    Entry entry;
+    synchronized( myEntries )
+    {
+      entry = getEntry( item.getObjectID() );
+    }
+    return (entry != null && entry.revision == item.getRevisionNumber()) ? entry.digest : null;
+  }
+
+  /**
+   * Overwrite the file with the kept copy of the item's revision.
+   * @return false if there is no copy of the revision.
+   */
+  public boolean restore( Item item, java.io.File file )
+  {
+    if( getDigest( item ) == null )
+      return false;
+
+    java.io.File content = getContentFile( item.getObjectID() );
+    if( !content.isFile() )
+      return false;
+
+    try
+    {
+      FileUtil.copy( content, file );
+      DirectoryTrimmer.touch( content );
+      return true;
+    }
+    catch( IOException e )
+    {
+      LOG.debug( e );
+      return false;
+    }
+  }
+
+  /**
+   * Forget the entries read so far, e.g. when the view is switched.
+   */
+  public void clear()
+  {
+    synchronized( myEntries )
+    {
+      myEntries.clear();
+    }
+  }
+
+  /**
+   * Delete the copies least recently used once they take more than the limit,
+   * down to three quarters of it, so that the directory is not listed on
+   * every checkout.
+   */
+  private void trimContents()
+  {
+    java.io.File dir = new java.io.File( getStoreDirectory(), CONTENTS_DIR );
+    if( myContentsSize < 0 )
+    {
+      myContentsSize = 0;
+      java.io.File[] files = dir.listFiles();
+      if( files != null )
+      {
+        for( java.io.File file : files )
+          myContentsSize += file.length();
+      }
+    }
+
+    if( myContentsSize > MAX_CONTENTS_SIZE )
+    {
+      DirectoryTrimmer.trim( dir, MAX_CONTENTS_SIZE / 4 * 3 );
+      myContentsSize = -1;
+    }
+  }
+
+  @Nullable
+  private Entry getEntry( int objectId )
+  {
+    if( myEntries.containsKey( objectId ) )
+      return myEntries.get( objectId );
+
+    Entry entry = readEntry( getEntryFile( objectId ) );
+    myEntries.put( objectId, entry );
+    return entry;
+  }
+
+  private java.io.File getContentFile( int objectId )
+  {
+    java.io.File dir = new java.io.File( getStoreDirectory(), CONTENTS_DIR );
+    dir.mkdirs();
+    return new java.io.File( dir, String.valueOf( objectId ) );
+  }
+
+  private java.io.File getEntryFile( int objectId )
+  {
+    java.io.File dir = new java.io.File( getStoreDirectory(), ITEMS_DIR );
+    return new java.io.File( dir, String.valueOf( objectId ) );
+  }
+
+  private java.io.File getStoreDirectory()
+  {
+    return new java.io.File( host.getSystemDirectory(), STORE_DIR );
+  }
+
+  @Nullable
+  private static Entry readEntry( java.io.File entryFile )
+  {
+    if( !entryFile.isFile() )
+      return null;
+
+    try
+    {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( entryFile ) ) );
+      try
+      {
+        if( in.readInt() != VERSION )
+          return null;
+
+        int revision = in.readInt();
+        byte[] digest = new byte[ in.readInt() ];
+        in.readFully( digest );
+        return new Entry( revision, digest );
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch( IOException e )
+    {
+      //  Damaged - the file is checked out from the server then.
+      LOG.debug( e );
+      return null;
+    }
+  }
+
+  private static void writeEntry( java.io.File entryFile, Entry entry ) throws IOException
+  {
+    entryFile.getParentFile().mkdirs();
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( entryFile ) ) );
+    try
+    {
+      out.writeInt( VERSION );
+      out.writeInt( entry.revision );
+      out.writeInt( entry.digest.length );
+      out.write( entry.digest );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private static class Entry
+  {
+    public final int    revision;
+    public final byte[] digest;
+
+    public Entry( int revision, byte[] digest )
+    {
+      this.revision = revision;
+      this.digest = digest;
+    }
+  }
+}
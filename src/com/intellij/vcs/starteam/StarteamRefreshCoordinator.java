@@ -0,0 +1,152 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.vcs.VcsException;
+import com.starbase.starteam.Folder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges view refresh requests into as few server round-trips as possible.
+ * <ul>
+ * <li>Requests which arrive while a full refresh is running wait for it and
+ *     share its result.</li>
+ * <li>Within the configured staleness period after a full refresh, a request
+ *     only refreshes the folders which were explicitly marked stale by the
+ *     mutating operations since then.</li>
+ * </ul>
+ */
+class StarteamRefreshCoordinator
+{
+  private final StarteamVcs host;
+  private final StarteamConfiguration configuration;
+
+  private final Object myLock = new Object();
+  private final Map<Integer, Folder> myStaleFolders = new HashMap<Integer, Folder>();
+  private boolean myRefreshInProgress = false;
+  private boolean myRefreshed = false;
+  private long    myLastRefreshStart = 0;
+
+  public StarteamRefreshCoordinator( StarteamVcs host, StarteamConfiguration configuration )
+  {
+    this.host = host;
+    this.configuration = configuration;
+  }
+
+  /**
+   * @param force if true, the whole folder tree is refreshed unless another
+   *              full refresh has been started after this request was made.
+   */
+  public void refresh( boolean force ) throws VcsException
+  {
+    final long requested = System.currentTimeMillis();
+    synchronized( myLock )
+    {
+      waitForRunningRefresh();
+
+      //  A full refresh started after our request covers it completely.
+      if( myRefreshed && myLastRefreshStart >= requested )
+        return;
+
+      boolean fresh = myRefreshed && requested - myLastRefreshStart < configuration.VIEW_REFRESH_PERIOD;
+      if( !force && fresh )
+      {
+        refreshStaleFoldersLocked();
+        return;
+      }
+
+      myRefreshInProgress = true;
+      myStaleFolders.clear();
+    }
+
+    final long start = System.currentTimeMillis();
+    boolean succeeded = false;
+    try
+    {
+      host.refreshView();
+      succeeded = true;
+    }
+    finally
+    {
+      synchronized( myLock )
+      {
+        myRefreshInProgress = false;
+        if( succeeded )
+        {
+          myRefreshed = true;
+          myLastRefreshStart = start;
+        }
+        myLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Refresh only the folders marked stale, never the whole view.
+   */
+  public void refreshStaleFolders() throws VcsException
+  {
+    synchronized( myLock )
+    {
+      waitForRunningRefresh();
+      refreshStaleFoldersLocked();
+    }
+  }
+
+  public void markStale( Folder folder )
+  {
+    synchronized( myLock )
+    {
+      myStaleFolders.put( folder.getID(), folder );
+    }
+  }
+
+  public void reset()
+  {
+    synchronized( myLock )
+    {
+      myStaleFolders.clear();
+      myRefreshed = false;
+    }
+  }
+
+  private void refreshStaleFoldersLocked() throws VcsException
+  {
+    if( myStaleFolders.isEmpty() )
+      return;
+
+    List<Folder> folders = new ArrayList<Folder>( myStaleFolders.values() );
+    myStaleFolders.clear();
+    for( int i = 0; i < folders.size(); i++ )
+    {
+      try
+      {
+        host.refreshFolderItems( folders.get( i ) );
+      }
+      catch( VcsException e )
+      {
+        //  Keep the rest stale so that the next request retries them.
+        for( Folder folder : folders.subList( i, folders.size() ) )
+          myStaleFolders.put( folder.getID(), folder );
+        throw e;
+      }
+    }
+  }
+
+  private void waitForRunningRefresh() throws VcsException
+  {
+    while( myRefreshInProgress )
+    {
+      try
+      {
+        myLock.wait();
+      }
+      catch( InterruptedException e )
+      {
+        throw new VcsException( e );
+      }
+    }
+  }
+}
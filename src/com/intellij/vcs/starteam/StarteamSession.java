@@ -0,0 +1,159 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vcs.VcsException;
+import com.starbase.starteam.*;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An additional login to the server with the view of its own, used to run
+ * the operations on many files concurrently (see {@link StarteamSessionPool}).
+ * Items of a session must not be mixed with the items of other sessions.
+ */
+class StarteamSession
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamSession" );
+
+  private final StarteamConfiguration configuration;
+  private final Server server;
+  private final View   view;
+  private final StarteamItemCache itemCache = new StarteamItemCache();
+
+  StarteamSession( StarteamConfiguration configuration, Server server, View view )
+  {
+    this.configuration = configuration;
+    this.server = server;
+    this.view = view;
+  }
+
+  public static StarteamSession open( StarteamConfiguration configuration ) throws VcsException
+  {
+    Server server = new Server( configuration.SERVER, configuration.PORT );
+    try
+    {
+      server.logOn( configuration.USER, configuration.getPassword() );
+      View view = StarteamVcs.findView( StarteamVcs.findProject( server, configuration ), configuration );
+
+      //  The alternate path is stored on the server by the main session, here
+      //  it is only applied to the local objects.
+      if( configuration.ALTERNATIVE_WORKING_PATH.length() != 0 )
+      {
+        view.setAlternatePath( configuration.ALTERNATIVE_WORKING_PATH );
+        view.getRootFolder().setAlternatePathFragment( configuration.ALTERNATIVE_WORKING_PATH );
+      }
+      return new StarteamSession( configuration, server, view );
+    }
+    catch( VcsException e )
+    {
+      server.disconnect();
+      throw e;
+    }
+    catch( Exception e )
+    {
+      LOG.debug( e );
+      server.disconnect();
+      throw new VcsException( e );
+    }
+  }
+
+  @Nullable
+  public Folder findFolder( String path )
+  {
+    return StarteamVcs.findFolder( view, itemCache, configuration, path );
+  }
+
+  @Nullable
+  public File findFile( String path )
+  {
+    return StarteamVcs.findFile( view, itemCache, configuration, path );
+  }
+
+  public Folder getRootFolder()
+  {
+    return view.getRootFolder();
+  }
+
+  public Folder[] getSubFolders( Folder folder )
+  {
+    Item[] items = folder.getItems( server.getTypeNames().FOLDER );
+    Folder[] result = new Folder[ items.length ];
+    System.arraycopy( items, 0, result, 0, items.length );
+    return result;
+  }
+
+  public File[] getFiles( Folder folder )
+  {
+    Item[] items = folder.getItems( server.getTypeNames().FILE );
+    File[] result = new File[ items.length ];
+    System.arraycopy( items, 0, result, 0, items.length );
+    return result;
+  }
+
+  /**
+   * Create the subfolder unless the folder has one of that name already.
+   */
+  public Folder addFolder( Folder parent, String name )
+  {
+    for( Folder folder : getSubFolders( parent ) )
+    {
+      if( folder.getName().equals( name ) )
+        return folder;
+    }
+
+    Folder folder = new Folder( parent );
+    folder.setName( name );
+    folder.setDefaultPathFragment( name );
+    folder.update();
+    itemCache.invalidateFolder( parent );
+    return folder;
+  }
+
+  /**
+   * Bring the statuses of the folder's files up to date; a session may be
+   * idle in the pool for a while.
+   */
+  public void refreshFiles( Folder folder )
+  {
+    folder.refreshItems( server.getTypeNames().FILE, null, 0 );
+    itemCache.invalidateFiles( folder );
+  }
+
+  /**
+   * Reload the folder tree, e.g. for the folders created after the session
+   * was opened.
+   */
+  public void refreshFolders()
+  {
+    view.refreshFolders();
+    itemCache.clear();
+  }
+
+  /**
+   * @return false if the connection is known to be lost; a session logged off
+   *         by the server for inactivity may still look connected.
+   */
+  public boolean isConnected()
+  {
+    try
+    {
+      return server.isConnected();
+    }
+    catch( Exception e )
+    {
+      LOG.debug( e );
+      return false;
+    }
+  }
+
+  public void close()
+  {
+    try
+    {
+      server.disconnect();
+    }
+    catch( Exception e )
+    {
+      LOG.debug( e );
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vcs.VcsException;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A bounded set of additional server sessions which is shared by the bulk
+ * operations (commit, rollback). Sessions are opened on demand, kept open
+ * between the operations and closed along with the main connection.
+ * <p/>
+ * The server logs idle clients off without notice, so a session which has
+ * been idle for longer than {@link #MAX_IDLE_TIME} or has lost its connection
+ * is replaced by a new one when taken from the pool. A task failing with an
+ * unchecked exception - the way the SDK reports lost connections - is run
+ * once more on a new session.
+ */
+class StarteamSessionPool
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamSessionPool" );
+
+  private static final long MAX_IDLE_TIME = 60 * 1000;
+
+  /**
+   * A unit of work run with a session of its own.
+   */
+  public interface SessionTask
+  {
+    void run( StarteamSession session ) throws VcsException;
+  }
+
+  private final StarteamConfiguration configuration;
+
+  private final LinkedList<IdleSession> myIdle = new LinkedList<IdleSession>();
+  private int myOpened = 0;
+
+  public StarteamSessionPool( StarteamConfiguration configuration )
+  {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Run the tasks concurrently on up to {@link StarteamConfiguration#SERVER_SESSIONS}
+   * sessions and wait for all of them. Exceptions thrown by the tasks are
+   * collected into the errors, the remaining tasks go on.
+   */
+  public void run( @NonNls String name, Collection<? extends SessionTask> tasks, final List<VcsException> errors,
+                   @Nullable ProgressIndicator progress )
+  {
+    run( name, tasks, errors, progress, null );
+  }
+
+  /**
+   * @param poll run on the calling thread after every task submitted and from
+   *             time to time while the tasks are running; the caller has to
+   *             collect what is left once this method returns.
+   */
+  public void run( @NonNls String name, Collection<? extends SessionTask> tasks, final List<VcsException> errors,
+                   @Nullable ProgressIndicator progress, @Nullable Runnable poll )
+  {
+    ParallelTasks parallel = new ParallelTasks( name, Math.min( getLimit(), tasks.size() ) );
+    for( final SessionTask task : tasks )
+    {
+      parallel.submit( new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            runWithRetry( task );
+          }
+          catch( VcsException e )
+          {
+            synchronized( errors ) {  errors.add( e );  }
+          }
+          catch( RuntimeException e )
+          {
+            //  SDK reports everything, including the problems with particular
+            //  items, with unchecked exceptions.
+            synchronized( errors ) {  errors.add( new VcsException( e ) );  }
+          }
+        }
+      });
+
+      //  With a single session the tasks are run right on submit.
+      if( poll != null )
+        poll.run();
+    }
+    parallel.await( progress, poll );
+  }
+
+  /**
+   * Run a single task on the calling thread with a session taken from the
+   * pool, e.g. for the background work which has threads of its own.
+   */
+  public void run( SessionTask task ) throws VcsException
+  {
+    runWithRetry( task );
+  }
+
+  private void runWithRetry( SessionTask task ) throws VcsException
+  {
+    for( int attempt = 0; ; attempt++ )
+    {
+      StarteamSession session = acquire();
+      boolean broken = true;
+      try
+      {
+        task.run( session );
+        broken = false;
+        return;
+      }
+      catch( VcsException e )
+      {
+        //  The session itself is fine, the item is not.
+        broken = false;
+        throw e;
+      }
+      catch( RuntimeException e )
+      {
+        if( attempt > 0 )
+          throw e;
+        LOG.debug( e );
+      }
+      finally
+      {
+        release( session, broken );
+      }
+    }
+  }
+
+  private StarteamSession acquire() throws VcsException
+  {
+    IdleSession idle = null;
+    synchronized( myIdle )
+    {
+      while( myIdle.isEmpty() && myOpened >= getLimit() )
+      {
+        try
+        {
+          myIdle.wait();
+        }
+        catch( InterruptedException e )
+        {
+          throw new VcsException( e );
+        }
+      }
+      if( !myIdle.isEmpty() )
+        idle = myIdle.removeFirst();
+      else
+        myOpened++;
+    }
+
+    //  A stale session keeps its slot and is replaced in place.
+    if( idle != null )
+    {
+      if( System.currentTimeMillis() - idle.since < MAX_IDLE_TIME && idle.session.isConnected() )
+        return idle.session;
+      idle.session.close();
+    }
+
+    //  Logging on takes a while - not under the lock.
+    try
+    {
+      return openSession();
+    }
+    catch( VcsException e )
+    {
+      synchronized( myIdle )
+      {
+        myOpened--;
+        myIdle.notifyAll();
+      }
+      throw e;
+    }
+  }
+
+  protected StarteamSession openSession() throws VcsException
+  {
+    return StarteamSession.open( configuration );
+  }
+
+  /**
+   * @param broken the session failed unexpectedly and must not be reused.
+   */
+  private void release( StarteamSession session, boolean broken )
+  {
+    if( broken )
+      session.close();
+
+    synchronized( myIdle )
+    {
+      if( broken )
+        myOpened--;
+      else
+        myIdle.addFirst( new IdleSession( session ) );
+      myIdle.notifyAll();
+    }
+  }
+
+  /**
+   * Close the idle sessions; sessions in use are closed when released.
+   */
+  public void close()
+  {
+    List<IdleSession> sessions;
+    synchronized( myIdle )
+    {
+      sessions = new ArrayList<IdleSession>( myIdle );
+      myOpened -= myIdle.size();
+      myIdle.clear();
+    }
+    for( IdleSession idle : sessions )
+      idle.session.close();
+  }
+
+  private int getLimit()
+  {
+    return Math.max( 1, configuration.SERVER_SESSIONS );
+  }
+
+  private static class IdleSession
+  {
+    private final StarteamSession session;
+    private final long since = System.currentTimeMillis();
+
+    private IdleSession( StarteamSession session )
+    {
+      this.session = session;
+    }
+  }
+}
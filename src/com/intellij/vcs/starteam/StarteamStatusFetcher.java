@@ -0,0 +1,123 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Status;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Brings statuses of many files up to date at once: the files are grouped by
+ * their parent folder and every group costs a single refresh of the folder's
+ * file items, after which the status of each file is computed locally.
+ * <p/>
+ * The folders are processed concurrently on the sessions of the
+ * {@link StarteamSessionPool}, so only the statuses leave the tasks - the
+ * items belong to the sessions and must not be used by the caller.
+ */
+class StarteamStatusFetcher
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamStatusFetcher" );
+
+  private final StarteamVcs host;
+
+  public StarteamStatusFetcher( StarteamVcs host )
+  {
+    this.host = host;
+  }
+
+  /**
+   * @return statuses keyed by the file path; files which are not present in
+   *         the repository have no entry.
+   * @throws VcsException the first failure of the folders processed.
+   */
+  public Map<String, Integer> fetch( Collection<FilePath> files, @Nullable ProgressIndicator progress ) throws VcsException
+  {
+    Map<String, List<FilePath>> groups = new HashMap<String, List<FilePath>>();
+    for( FilePath file : files )
+    {
+      FilePath parent = file.getParentPath();
+      String parentPath = (parent == null) ? "" : parent.getPath();
+      List<FilePath> group = groups.get( parentPath );
+      if( group == null )
+      {
+        group = new ArrayList<FilePath>();
+        groups.put( parentPath, group );
+      }
+      group.add( file );
+    }
+
+    final Map<String, Integer> result = new ConcurrentHashMap<String, Integer>( files.size() * 2 );
+    List<StarteamSessionPool.SessionTask> tasks = new ArrayList<StarteamSessionPool.SessionTask>( groups.size() );
+    for( final Map.Entry<String, List<FilePath>> entry : groups.entrySet() )
+    {
+      tasks.add( new StarteamSessionPool.SessionTask()
+      {
+        public void run( StarteamSession session )
+        {
+          fetchFolder( session, entry.getKey(), entry.getValue(), result );
+        }
+      });
+    }
+
+    List<VcsException> errors = new ArrayList<VcsException>();
+    host.getSessionPool().run( "StarTeam status", tasks, errors, progress );
+    if( !errors.isEmpty() )
+      throw errors.get( 0 );
+    return result;
+  }
+
+  private static void fetchFolder( StarteamSession session, String folderPath, List<FilePath> files,
+                                   Map<String, Integer> result )
+  {
+    String stPath = StarteamChangeProvider.getSTCanonicPath( folderPath );
+    Folder folder = session.findFolder( stPath );
+    if( folder == null )
+    {
+      //  The folder may have been created after the session was opened.
+      session.refreshFolders();
+      folder = session.findFolder( stPath );
+    }
+
+    //  No parent folder in the repository - none of its files is there either.
+    if( folder == null )
+      return;
+
+    session.refreshFiles( folder );
+    for( FilePath file : files )
+    {
+      File stFile = session.findFile( StarteamChangeProvider.getSTCanonicPath( file ) );
+      if( stFile != null )
+        result.put( file.getPath(), getStatus( stFile ) );
+    }
+  }
+
+  private static int getStatus( File file )
+  {
+    //  In certain cases we still get status "UNKNOWN" (int 6) after the
+    //  particular amount of time (even after full resync). Try to refresh
+    //  this particular file.
+    int status = file.getStatus();
+    if( status == Status.UNKNOWN )
+    {
+      try
+      {
+        file.updateStatus( false, true );
+      }
+      catch( Exception e )
+      {
+        //  Nothing to do - if <updateStatus> throws an exception then most
+        //  probably we deal with latest version
+        LOG.debug( e );
+      }
+      status = file.getStatus();
+    }
+    return status;
+  }
+}
@@ -127,6 +127,10 @@ public class StarteamUpdateEnvironment implements UpdateEnvironment
       {
         groups.getGroupById( FileGroup.MERGED_WITH_CONFLICT_ID ).add(file.getFullName(), vcsKey, null);
       }
+
+      //  Checked out files are recorded by the checkout itself.
+      if( status != Status.MISSING && status != Status.OUTOFDATE )
+        host.getLocalSnapshot().record( new java.io.File( file.getFullName() ), status );
     }
     catch( IOException e )
     {
@@ -0,0 +1,148 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.starbase.starteam.Server;
+import com.starbase.starteam.User;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Names of the users of StarTeam servers, shared by all the projects. The
+ * user list of a server is loaded in one request when it is needed first and
+ * is reloaded from time to time, or when a user unknown so far is met.
+ * <p/>
+ * The names are asked for while rendering, so the list is always loaded on a
+ * pooled thread and the names loaded before are returned meanwhile - null
+ * until the first load of the server's list is done.
+ */
+public class StarteamUserDirectory implements ApplicationComponent
+{
+  private static final Logger LOG = Logger.getInstance( "#com.intellij.vcs.starteam.StarteamUserDirectory" );
+
+  private static final long REFRESH_PERIOD = 10 * 60 * 1000;
+  private static final long MIN_REFRESH_PERIOD = 60 * 1000;
+
+  private final ConcurrentMap<String, Directory> myDirectories = new ConcurrentHashMap<String, Directory>();
+
+  public static StarteamUserDirectory getInstance()
+  {
+    return ApplicationManager.getApplication().getComponent( StarteamUserDirectory.class );
+  }
+
+  @NonNls
+  @NotNull
+  public String getComponentName()  {  return "Starteam.UserDirectory";  }
+
+  public void initComponent()
+  {
+  }
+
+  public void disposeComponent()
+  {
+    myDirectories.clear();
+  }
+
+  /**
+   * @return name of the user, or null if the server does not know the user.
+   */
+  @Nullable
+  public String getUserName( Server server, int userId )
+  {
+    Directory directory = getDirectory( server );
+    String name = directory.names.get( userId );
+
+    long age = System.currentTimeMillis() - directory.loaded;
+    if( age > REFRESH_PERIOD || (name == null && age > MIN_REFRESH_PERIOD) )
+      scheduleReload( server, directory );
+    return name;
+  }
+
+  private Directory getDirectory( Server server )
+  {
+    String key = getKey( server );
+    Directory directory = myDirectories.get( key );
+    if( directory == null )
+    {
+      Directory created = new Directory();
+      directory = myDirectories.putIfAbsent( key, created );
+      if( directory == null )
+        directory = created;
+    }
+    return directory;
+  }
+
+  /**
+   * Reload the directory on a pooled thread unless a reload is running already.
+   */
+  private static void scheduleReload( final Server server, final Directory directory )
+  {
+    if( !directory.refreshing.compareAndSet( false, true ) )
+      return;
+
+    try
+    {
+      ApplicationManager.getApplication().executeOnPooledThread( new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            directory.load( server );
+          }
+          finally
+          {
+            directory.refreshing.set( false );
+          }
+        }
+      });
+    }
+    catch( RuntimeException e )
+    {
+      directory.refreshing.set( false );
+      throw e;
+    }
+  }
+
+  private static String getKey( Server server )
+  {
+    return server.getAddress() + ":" + server.getPort();
+  }
+
+  private static class Directory
+  {
+    private volatile Map<Integer, String> names = Collections.emptyMap();
+    private volatile long loaded = 0;
+    private final AtomicBoolean refreshing = new AtomicBoolean( false );
+
+    /**
+     * On failure the names loaded before are kept; the next attempt is made
+     * after {@link #MIN_REFRESH_PERIOD} at the earliest.
+     */
+    private void load( Server server )
+    {
+      try
+      {
+        User[] users = server.getUsers();
+        Map<Integer, String> result = new HashMap<Integer, String>( users.length * 2 );
+        for( User user : users )
+          result.put( user.getID(), user.getName() );
+        names = result;
+      }
+      catch( Exception e )
+      {
+        LOG.debug( e );
+      }
+      loaded = System.currentTimeMillis();
+    }
+  }
+}
@@ -1,11 +1,13 @@
 package com.intellij.vcs.starteam;
 
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.*;
+import com.intellij.openapi.vcs.annotate.AnnotationProvider;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ChangeProvider;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
@@ -23,8 +25,11 @@ import com.starbase.util.OLEDate;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,6 +59,15 @@ public class StarteamVcs extends AbstractVcs
   private Server    myServer;
   private Project   myStarteamProject;
   private View      myView;
+  private final StarteamItemCache myItemCache = new StarteamItemCache();
+  private StarteamRefreshCoordinator myRefreshCoordinator;
+  private final StarteamLocalSnapshot myLocalSnapshot = new StarteamLocalSnapshot();
+  private StarteamContentCache myContentCache;
+  private StarteamPrefetcher myPrefetcher;
+  private final StarteamHistoryCache myHistoryCache = new StarteamHistoryCache();
+  private final StarteamHistoryIndex myHistoryIndex = new StarteamHistoryIndex( this );
+  private StarteamSessionPool mySessionPool;
+  private final StarteamPristineStore myPristineStore = new StarteamPristineStore( this );
 
   private static final char SEP = java.io.File.separatorChar;
   private StarteamCheckinEnvironment myCheckinEnvironment;
@@ -61,6 +75,7 @@ public class StarteamVcs extends AbstractVcs
   private ChangeProvider      myChangeProvider;
   private UpdateEnvironment   myUpdateEnvironment;
   private VcsHistoryProvider  myHistoryProvider;
+  private AnnotationProvider  myAnnotationProvider;
   private StarteamConfiguration myConfiguration;
 
   private VcsShowConfirmationOption addConfirmation;
@@ -84,10 +99,15 @@ public class StarteamVcs extends AbstractVcs
     try {
       safeInit = true;
       myConfiguration = starteamConfiguration;
+      myRefreshCoordinator = new StarteamRefreshCoordinator( this, starteamConfiguration );
+      myContentCache = new StarteamContentCache();
+      myPrefetcher = new StarteamPrefetcher( this, starteamConfiguration );
+      mySessionPool = new StarteamSessionPool( starteamConfiguration );
       myCheckinEnvironment = new StarteamCheckinEnvironment(project, this);
       myEditFileProvider = new StarteamEditFileProvider( this );
       myUpdateEnvironment = new StarteamUpdateEnvironment( this );
       myHistoryProvider = new StarteamHistoryProvider( this );
+      myAnnotationProvider = new StarteamAnnotationProvider( this );
       myChangeProvider = new StarteamChangeProvider( myProject, this );
 
       removedFiles = new HashSet<String>();
@@ -116,6 +136,7 @@ public class StarteamVcs extends AbstractVcs
 
   public UpdateEnvironment  getUpdateEnvironment()  {  return myUpdateEnvironment;  }
   public VcsHistoryProvider getVcsHistoryProvider() {  return myHistoryProvider;    }
+  public AnnotationProvider getAnnotationProvider() {  return myAnnotationProvider; }
   public ChangeProvider     getChangeProvider()     {  return safeInit ? myChangeProvider : null;     }
   public EditFileProvider   getEditFileProvider()   {  return myEditFileProvider;   }
   private boolean           haveAlternativePath()   {  return !"".equals( myConfiguration.ALTERNATIVE_WORKING_PATH );  }
@@ -124,6 +145,14 @@ public class StarteamVcs extends AbstractVcs
     return safeInit? new StarteamConfigurable( myProject ) : new StarteamVcsAdapter.MyConfigurable();
   }
 
+  public StarteamConfiguration getConfiguration()  {  return myConfiguration; }
+  StarteamLocalSnapshot getLocalSnapshot()         {  return myLocalSnapshot; }
+  StarteamContentCache  getContentCache()          {  return myContentCache;  }
+  StarteamPrefetcher    getPrefetcher()            {  return myPrefetcher;    }
+  StarteamHistoryCache  getHistoryCache()          {  return myHistoryCache;  }
+  StarteamSessionPool   getSessionPool()           {  return mySessionPool;   }
+  public StarteamHistoryIndex getHistoryIndex()    {  return myHistoryIndex;  }
+
   public VcsShowConfirmationOption getAddConfirmation()   {  return addConfirmation; }
   public VcsShowConfirmationOption getDelConfirmation()   {  return delConfirmation; }
 
@@ -179,10 +208,8 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: start()");
 
       connect();
-      findProject();
-      
-      if (myStarteamProject == null) return;
-      findView();
+      myStarteamProject = findProject(myServer, myConfiguration);
+      myView = findView(myStarteamProject, myConfiguration);
       if( myView != null && myConfiguration.ALTERNATIVE_WORKING_PATH.length() != 0)
       {
         myView.setAlternatePath( myConfiguration.ALTERNATIVE_WORKING_PATH );
@@ -192,6 +219,8 @@ public class StarteamVcs extends AbstractVcs
         root.setAlternatePathFragment( myConfiguration.ALTERNATIVE_WORKING_PATH );
         root.update();
       }
+      if( myView != null && myConfiguration.INDEX_HISTORY )
+        myHistoryIndex.scheduleUpdate();
 
       LOG.debug("exit: start()");
     }
@@ -249,6 +278,14 @@ public class StarteamVcs extends AbstractVcs
 
   private void disconnect() {
     myView = null;
+    myItemCache.clear();
+    myPrefetcher.shutdown();
+    myHistoryIndex.shutdown();
+    mySessionPool.close();
+    myPristineStore.clear();
+    myContentCache.clear();
+    myHistoryCache.clear();
+    myRefreshCoordinator.reset();
 
     LOG.debug("disconnecting");
     if (myServer != null){
@@ -257,44 +294,61 @@ public class StarteamVcs extends AbstractVcs
     myServer = null;
   }
 
-  private void findView() throws VcsException {
-    final View[] views = myStarteamProject.getViews();
+  /**
+   * Shared with the additional sessions (see {@link StarteamSession}) which
+   * log on to the same project and view.
+   */
+  static View findView(Project starteamProject, StarteamConfiguration configuration) throws VcsException {
+    final View[] views = starteamProject.getViews();
     for (View view : views) {
-      if (view.getName().equals(myConfiguration.VIEW)) {
-        myView = view;
+      if (view.getName().equals(configuration.VIEW)) {
         if (LOG.isDebugEnabled()) {
-          LOG.debug("found view: " + myConfiguration.VIEW);
+          LOG.debug("found view: " + configuration.VIEW);
         }
-        return;
+        return view;
       }
     }
 
-    error(VIEW_NOT_FOUND, myConfiguration.VIEW);
+    error(VIEW_NOT_FOUND, configuration.VIEW);
+    return null;
   }
 
-  private void findProject() throws VcsException {
-    final Project[] projects = myServer.getProjects();
+  static Project findProject(Server server, StarteamConfiguration configuration) throws VcsException {
+    final Project[] projects = server.getProjects();
     for (Project project : projects) {
-      if (project.getName().equals(myConfiguration.PROJECT)) {
-        myStarteamProject = project;
+      if (project.getName().equals(configuration.PROJECT)) {
         if (LOG.isDebugEnabled()) {
-          LOG.debug("found project: " + myConfiguration.PROJECT);
+          LOG.debug("found project: " + configuration.PROJECT);
         }
-        return;
+        return project;
       }
     }
 
-    error(PROJECT_NOT_FOUND, myConfiguration.PROJECT);
+    error(PROJECT_NOT_FOUND, configuration.PROJECT);
+    return null;
   }
 
   public boolean checkinFile(String path, Object parameters, Map userData) throws VcsException
   {
     if (LOG.isDebugEnabled())  LOG.debug("enter: checkinFile(file='" + path + "')");
 
-    refresh();
+    refreshIfStale();
     File f = findFile( path );
     if (f == null) error( FILE_NOT_FOUND_IN_STARTEAM, path );
 
+    boolean success = checkinFile( f, new java.io.File( path.replace('/', SEP) ), (String)parameters );
+    if( success )
+      myRefreshCoordinator.markStale( f.getParentFolder() );
+    return success;
+  }
+
+  /**
+   * Checkin of the already resolved item. The item may belong to any of the
+   * server sessions, so marking its folder stale is left to the caller.
+   * @return false if the local file conflicts with the repository version.
+   */
+  boolean checkinFile( File f, final java.io.File ioFile, String comment ) throws VcsException
+  {
     try
     {
 //      updateStatus( f );  !!! do not uncomment !!!
@@ -310,12 +364,13 @@ public class StarteamVcs extends AbstractVcs
        */
       f.setContentModificationTime(new OLEDate( new Date() ));
 
+      int status = f.getStatus();
       if( LOG.isDebugEnabled() )
-        LOG.debug("fileStatus:" + Status.name( f.getStatus() ));
+        LOG.debug("fileStatus:" + Status.name( status ));
 
-      int status = f.getStatus();
       if( status == Status.MERGE || status == Status.OUTOFDATE )
       {
+          myLocalSnapshot.forget( ioFile );
           return false;
       }
       else
@@ -329,9 +384,15 @@ public class StarteamVcs extends AbstractVcs
         // This force check in shouldn't cause any problem, cause IDEA is quite sure that status is Modified.
         // If the file were really out of date - the status would be Merge
         // todo Any hints on fixing it other way?
-        String comment = (String)parameters;
         boolean forceCheckin = (status == Status.UNKNOWN);
-        f.checkinFrom( new java.io.File(path.replace('/', SEP)), comment, Item.LockType.UNCHANGED, forceCheckin, false, true );
+
+        //  A forced checkin of the unchanged content would only produce an
+        //  empty revision.
+        if( !forceCheckin || !isSameAsTip( f, ioFile ) )
+        {
+          f.checkinFrom( ioFile, comment, Item.LockType.UNCHANGED, forceCheckin, false, true );
+          myPristineStore.forget( f );
+        }
 
         if( myConfiguration.UNLOCK_ON_CHECKIN )
         {
@@ -346,11 +407,13 @@ public class StarteamVcs extends AbstractVcs
       //  repository versions of the file - just return "false" in order to
       //  notify the user about checkin failure. Otherwise (smth serious like
       //  broken connection) - propagate the exception further.
+      myLocalSnapshot.forget( ioFile );
       if( e.getMessage().indexOf( REPOSITORY_FILE_NEWER ) != -1 )
         return false;
 
       throw new VcsException(e);
     }
+    myLocalSnapshot.record( ioFile, Status.CURRENT );
     return true;
   }
 
@@ -363,7 +426,7 @@ public class StarteamVcs extends AbstractVcs
     if (LOG.isDebugEnabled())
       LOG.debug("enter: checkoutFile(file='" + path + "')");
 
-    refresh();
+    refreshIfStale();
     File f = findFile( path );
     if( f == null ) error( FILE_NOT_FOUND_IN_STARTEAM, path );
 
@@ -396,7 +459,23 @@ public class StarteamVcs extends AbstractVcs
                                               Messages.getWarningIcon());
         if (result != 0) return false;
       }
+    }
+    catch(Exception e){
+      LOG.debug(e);
+      throw new VcsException(e);
+    }
+
+    checkoutItem( file );
+    return true;
+  }
 
+  /**
+   * Checkout of the already resolved item without asking for its status; the
+   * item may belong to any of the server sessions.
+   */
+  void checkoutItem( File file ) throws VcsException
+  {
+    try{
       if (!"".equals(myConfiguration.ALTERNATIVE_WORKING_PATH)){
         java.io.File checkoutTo = new java.io.File(file.getFullName());
         file.checkoutTo(checkoutTo, Item.LockType.UNCHANGED, true, false, true);
@@ -410,7 +489,9 @@ public class StarteamVcs extends AbstractVcs
         lockFile( file );
       }
 
-      return true;
+      java.io.File ioFile = new java.io.File( file.getFullName() );
+      myPristineStore.record( file, ioFile );
+      myLocalSnapshot.record( ioFile, Status.CURRENT );
     }
     catch(Exception e){
       LOG.debug(e);
@@ -418,6 +499,39 @@ public class StarteamVcs extends AbstractVcs
     }
   }
 
+  /**
+   * Bring the local file back to the tip revision: from the copy kept since
+   * its last checkout when that is still the tip, from the server otherwise.
+   * The item must be resolved with an up-to-date revision; it may belong to
+   * any of the server sessions.
+   * A restored file ends up as after {@link #checkoutItem}: its status is
+   * brought up to date, and if the SDK does not consider it current then,
+   * the file is checked out from the server after all.
+   */
+  void revertItem( File file ) throws VcsException
+  {
+    java.io.File ioFile = new java.io.File( file.getFullName() );
+    if( myPristineStore.restore( file, ioFile ) )
+    {
+      try
+      {
+        file.updateStatus( false, true );
+        if( file.getStatus() == Status.CURRENT )
+        {
+          if( myConfiguration.LOCK_ON_CHECKOUT )
+            lockFile( file );
+          myLocalSnapshot.record( ioFile, Status.CURRENT );
+          return;
+        }
+      }
+      catch( Exception e )
+      {
+        LOG.debug( e );
+      }
+    }
+    checkoutItem( file );
+  }
+
   public void checkoutFolder( Folder folder ) throws VcsException
   {
     File[] files = getFiles( folder );
@@ -429,26 +543,82 @@ public class StarteamVcs extends AbstractVcs
       checkoutFolder( sub );
   }
 
-  public byte[] getFileContent(String path) throws VcsException {
+  /**
+   * Content of the up-to-date repository revision of the file. Large contents
+   * are spilled to a temporary file, see {@link StarteamContent#dispose}.
+   */
+  public StarteamContent loadFileContent(String path) throws VcsException {
     if (LOG.isDebugEnabled()){
-      LOG.debug("enter: getFileContent(file='" + path + "')");
+      LOG.debug("enter: loadFileContent(file='" + path + "')");
     }
 
-    refresh();
+    refreshIfStale();
     File f = findFile(path);
     if (f == null) error(FILE_NOT_FOUND_IN_STARTEAM, path);
 
-    ByteArrayOutputStream inputStream = new ByteArrayOutputStream();
+    return loadContent(f);
+  }
+
+  /**
+   * Content of the particular revision of the file; revisions already seen by
+   * the diff, history or change views are taken from the content cache.
+   */
+  public StarteamContent loadContent(File revision) throws VcsException {
+    myPrefetcher.enterForeground();
+    try {
+      return retrieveContent(revision);
+    }
+    finally {
+      myPrefetcher.exitForeground();
+    }
+  }
+
+  /**
+   * Bring the content of the repository revision of the file into the content
+   * cache ahead of the request; used by the background prefetcher with the
+   * items of its own server sessions.
+   */
+  void prefetchContent(File revision) throws VcsException {
+    if (!myContentCache.contains(revision)) retrieveContent(revision).dispose();
+  }
+
+  /**
+   * Content of the particular revision of the file as a whole; contents
+   * spilled to a temporary file are read back from it.
+   */
+  public byte[] loadContentBytes(File revision) throws VcsException {
+    StarteamContent content = loadContent(revision);
+    try {
+      return content.isInMemory() ? content.getBytes() : FileUtil.loadFileBytes(content.getFile());
+    }
+    catch (IOException e) {
+      throw new VcsException(e);
+    }
+    finally {
+      content.dispose();
+    }
+  }
+
+  private StarteamContent retrieveContent(File revision) throws VcsException {
+    byte[] cached = myContentCache.get(revision);
+    if (cached != null) return new StarteamContent(cached);
 
+    String extension = FileUtil.getExtension(revision.getName());
+    SpillingOutputStream stream = new SpillingOutputStream(StarteamContent.SPILL_THRESHOLD,
+                                                           extension.length() == 0 ? null : "." + extension);
+    StarteamContent content;
     try{
-      f.checkoutToStream(inputStream, Item.LockType.UNCHANGED, false);
+      revision.checkoutToStream(stream, Item.LockType.UNCHANGED, false);
+      content = stream.getContent();
     }
     catch(Exception e){
+      stream.discard();
       LOG.debug(e);
       throw new VcsException(e);
     }
 
-    return inputStream.toByteArray();
+    if (content.isInMemory()) myContentCache.put(revision, content.getBytes());
+    return content;
   }
 
   public void lockFile( String path ) throws VcsException
@@ -456,11 +626,12 @@ public class StarteamVcs extends AbstractVcs
     if( LOG.isDebugEnabled() )
       LOG.debug("enter: lockFile(file='" + path + "')");
 
-    refresh();
+    refreshIfStale();
     File f = findFile( path);
     if (f == null) error( FILE_NOT_FOUND_IN_STARTEAM, path );
 
     lockFile ( f );
+    myRefreshCoordinator.markStale( f.getParentFolder() );
   }
 
   private static void lockFile( File file ) throws VcsException
@@ -469,16 +640,70 @@ public class StarteamVcs extends AbstractVcs
     catch( Exception e ){  LOG.debug(e);  throw new VcsException(e);  }
   }
 
+  /**
+   * Mark the folder of the main session stale after its items have been
+   * changed through another session.
+   */
+  void markFolderStale( String path )
+  {
+    Folder folder = findFolder( path );
+    if( folder != null )
+      myRefreshCoordinator.markStale( folder );
+  }
+
+  /**
+   * Compare the local file with the copy of the tip revision held locally in
+   * the content cache or the pristine store; without such copy the file is
+   * considered different. Contents in memory are compared byte by byte, only
+   * the pristine store has to be matched by the digest.
+   */
+  private boolean isSameAsTip( File f, java.io.File ioFile )
+  {
+    try
+    {
+      byte[] tip = myContentCache.get( f );
+      if( tip != null )
+        return tip.length == ioFile.length() && isSameContent( tip, ioFile );
+
+      byte[] tipDigest = myPristineStore.getDigest( f );
+      return tipDigest != null && Arrays.equals( StarteamDigest.md5( ioFile ), tipDigest );
+    }
+    catch( IOException e )
+    {
+      LOG.debug( e );
+      return false;
+    }
+  }
+
+  private static boolean isSameContent( byte[] content, java.io.File ioFile ) throws IOException
+  {
+    InputStream in = new BufferedInputStream( new FileInputStream( ioFile ) );
+    try
+    {
+      for( byte b : content )
+      {
+        if( in.read() != (b & 0xFF) )
+          return false;
+      }
+      return in.read() < 0;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
   public void unlockFile( String path ) throws VcsException
   {
     if( LOG.isDebugEnabled( ))
       LOG.debug("enter: unlockFile(file='" + path + "')");
 
-    refresh();
+    refreshIfStale();
     File f = findFile( path );
     if (f == null) error( FILE_NOT_FOUND_IN_STARTEAM, path );
 
     unlockFile( f );
+    myRefreshCoordinator.markStale( f.getParentFolder() );
   }
 
   private static void unlockFile( File file ) throws VcsException
@@ -501,68 +726,56 @@ public class StarteamVcs extends AbstractVcs
   public File findFile( String path )
   {
     if (myView == null) return null;
+    return findFile( myView, myItemCache, myConfiguration, path );
+  }
 
-    boolean sensitive = SystemInfo.isFileSystemCaseSensitive;
+  @Nullable
+  public Folder findFolder( String path )
+  {
+    if (myView == null) return null;
+    return findFolder( myView, myItemCache, myConfiguration, path );
+  }
+
+  /**
+   * Resolve the path in the view of any of the server sessions; every
+   * session has its own item cache.
+   */
+  @Nullable
+  static File findFile( View view, StarteamItemCache itemCache, StarteamConfiguration configuration, String path )
+  {
     path = path.replace( '/', SEP );
 
     Folder folder;
     if (path.indexOf(SEP) >= 0){
       String folderPath = path.substring(0, path.lastIndexOf(SEP));
-      folder = findFolder(folderPath);
+      folder = findFolder(view, itemCache, configuration, folderPath);
       if (folder == null) return null;
     }
     else{
-      folder = myView.getRootFolder();
+      folder = view.getRootFolder();
     }
 
     String fileName = path.substring(path.lastIndexOf(SEP) + 1);
-
-    final File[] files = getFiles(folder);
-    for (File f : files) {
-      if (sensitive && f.getName().equals(fileName)) return f;
-      if (!sensitive && f.getName().equalsIgnoreCase(fileName)) return f;
-    }
-
-    return null;
+    return itemCache.findFile(folder, fileName);
   }
 
   @Nullable
-  public Folder findFolder( String path )
+  static Folder findFolder( View view, StarteamItemCache itemCache, StarteamConfiguration configuration, String path )
   {
-    Folder folder = null;
-    if (myView == null) return null;
-
     //  Convert a path to a Starbase uniform representation.
     path = path.replace('/', java.io.File.separatorChar);
     path = normalizePath( path );
 
-    folder = myView.getRootFolder();
-    String currentPath = haveAlternativePath() ? myConfiguration.ALTERNATIVE_WORKING_PATH : folder.getPath();
-
-    currentPath = normalizePath( currentPath );
+    boolean haveAlternativePath = configuration.ALTERNATIVE_WORKING_PATH.length() != 0;
+    Folder root = view.getRootFolder();
+    String rootPath = haveAlternativePath ? configuration.ALTERNATIVE_WORKING_PATH : root.getPath();
 
-    if (!path.startsWith(currentPath)) return null;
-
-    main:
-    while( folder != null && !currentPath.equals( path ) )
-    {
-      final Folder[] folders = getSubFolders( folder );
-      folder = null;
-
-      for (Folder f : folders)
-      {
-        String p = normalizePath( currentPath + f.getName() );
-
-        if( path.startsWith( p )){
-          folder = f;
-          currentPath = p;
-          continue main;
-        }
-      }
-    }
+    //  Each path component below the root is resolved by a hashed lookup in
+    //  the item cache instead of a scan over all subfolders.
+    Folder folder = itemCache.findFolder( root, normalizePath( rootPath ), path );
 
-    if( folder != null && haveAlternativePath() )
-      folder.setAlternatePathFragment( currentPath );
+    if( folder != null && haveAlternativePath )
+      folder.setAlternatePathFragment( path );
     
     return folder;
   }
@@ -592,12 +805,10 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: addFile(folderPath='" + folderPath + "' name='" + fileName + "')");
 
     String comment = (String)parameters;
-    refresh();
+    refreshIfStale();
     final Folder folder = findFolder(folderPath);
     if (folder == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, folderPath);
 
-    folder.refreshItems(folder.getTypeNames().FILE, null, 0);
-
     if (findFile(folderPath + SEP + fileName) != null) return;
 
     java.io.File ioFolder = new java.io.File(folderPath);
@@ -605,11 +816,21 @@ public class StarteamVcs extends AbstractVcs
     java.io.File ioFile = new java.io.File(ioFolder, fileName);
     if (!ioFile.exists()) error(FILE_NOT_FOUND_ON_DISK, folderPath + SEP + fileName);
 
-    final File file = new File(folder);
+    addFile(folder, ioFile, comment);
+    myRefreshCoordinator.markStale(folder);
+  }
 
+  /**
+   * Add the file into the already resolved folder. Refreshing the folder
+   * afterwards is left to the caller.
+   */
+  void addFile(Folder folder, java.io.File ioFile, String comment) throws VcsException
+  {
+    if (!ioFile.exists()) error(FILE_NOT_FOUND_ON_DISK, ioFile.getPath());
+
+    final File file = new File(folder);
     try{
-      file.addAndReturn(ioFile, fileName, "", comment, Item.LockType.UNLOCKED, false, true);
-      folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+      file.addAndReturn(ioFile, ioFile.getName(), "", comment, Item.LockType.UNLOCKED, false, true);
     }
     catch(Exception e){
       LOG.debug(e);
@@ -624,19 +845,28 @@ public class StarteamVcs extends AbstractVcs
     }
     String comment = (String)parameters;
 
-    refresh();
+    refreshIfStale();
     final File f = findFile(filePath);
     if (f == null) error(FILE_NOT_FOUND_IN_STARTEAM, filePath);
 
+    final Folder folder = f.getParentFolder();
+    renameAndCheckInFile(f, newName, new java.io.File((folder.getPath() + "/" + newName).replace('/', SEP)), comment);
+    myRefreshCoordinator.markStale(folder);
+  }
+
+  /**
+   * Rename of the already resolved item; refreshing its folder is left to
+   * the caller.
+   */
+  void renameAndCheckInFile(File f, String newName, java.io.File ioFile, String comment) throws VcsException {
     try{
-      final Folder folder = f.getParentFolder();
       f.setName(newName);
       boolean forceCheckin = false;
       if (f.getStatus() == Status.UNKNOWN){
         forceCheckin = true;
       }
-      f.checkinFrom(new java.io.File((folder.getPath() + "/" + newName).replace('/', SEP)), comment, Item.LockType.UNCHANGED, forceCheckin, false, true);
-      folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+      f.checkinFrom(ioFile, comment, Item.LockType.UNCHANGED, forceCheckin, false, true);
+      myPristineStore.forget(f);
     }
     catch(Exception e){
       LOG.debug(e);
@@ -649,7 +879,7 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: setWorkingFolderName(path='" + path + "' newName='" + newName + "')");
     }
 
-    refresh();
+    refreshIfStale();
     final Folder folder = findFolder(path);
     if (folder == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, path);
 
@@ -663,7 +893,7 @@ public class StarteamVcs extends AbstractVcs
 
       final File[] files = getFiles( folder );
       for (File file : files) updateStatus(file);
-      folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+      myRefreshCoordinator.markStale(folder);
     }
     catch(Exception e){
       LOG.debug(e);
@@ -676,7 +906,7 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: setWorkingFolderName(path='" + path + "' newName='" + newName + "')");
     }
 
-    refresh();
+    refreshIfStale();
     final Folder folder = findFolder(path);
     if (folder == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, path);
 
@@ -689,11 +919,13 @@ public class StarteamVcs extends AbstractVcs
     try{
       folder.setName(newName);
       folder.update();
+      myItemCache.invalidateFolder(folder.getParentFolder());
 
       final File[] files = getFiles( folder );
       for( int i = 0; i < files.length; i++ )
         updateStatus( files[ i ] );
-      folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+      myRefreshCoordinator.markStale(folder);
+      myRefreshCoordinator.markStale(folder.getParentFolder());
     }
     catch(Exception e){
       LOG.debug(e);
@@ -706,7 +938,7 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: renameDirectory(path='" + path + "' newName='" + newName + "')");
     }
 
-    refresh();
+    refreshIfStale();
     final Folder folder = findFolder(path);
     if (folder == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, path);
 
@@ -723,6 +955,8 @@ public class StarteamVcs extends AbstractVcs
       folder.setName(newName);
       folder.setDefaultPathFragment(newName);
       folder.update();
+      myItemCache.invalidateFolder(folder.getParentFolder());
+      myRefreshCoordinator.markStale(folder.getParentFolder());
 
       //todo check the option about leaving empty folders here
 //      copyDirectoryStructure(folder, addFolder(parentFolder, oldName));
@@ -749,7 +983,7 @@ public class StarteamVcs extends AbstractVcs
       LOG.debug("enter: moveFile(path='" + path + "' newParentPath='" + newParentPath + "')");
     }
 
-    refresh();
+    refreshIfStale();
     final Folder folder = findFolder(path);
     if (folder == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, path);
 
@@ -768,9 +1002,11 @@ public class StarteamVcs extends AbstractVcs
     try{
       folder.move(newParent);
 //      folder.update();
+      myItemCache.invalidateFolder(newParent);
+      myItemCache.invalidateFolder(oldFolder);
 
-      newParent.refreshItems(newParent.getTypeNames().FILE, null, 0);
-      oldFolder.refreshItems(oldFolder.getTypeNames().FILE, null, 0);
+      myRefreshCoordinator.markStale(newParent);
+      myRefreshCoordinator.markStale(oldFolder);
 //      newParent.refreshItems(newParent.getTypeNames().FOLDER, null, 1);
 //      oldFolder.refreshItems(oldFolder.getTypeNames().FOLDER, null, 1);
 
@@ -814,7 +1050,7 @@ public class StarteamVcs extends AbstractVcs
     }
 
     String comment = (String)parameters;
-    refresh();
+    refreshIfStale();
     final File f = findFile(filePath);
     if (f == null) error(FILE_NOT_FOUND_IN_STARTEAM, filePath);
 
@@ -823,13 +1059,21 @@ public class StarteamVcs extends AbstractVcs
 
     Folder oldFolder = f.getParentFolder();
 
+    moveRenameAndCheckInFile(f, newFolder, newName, new java.io.File((newParentPath + "/" + newName).replace('/', SEP)), comment);
+    myRefreshCoordinator.markStale(newFolder);
+    myRefreshCoordinator.markStale(oldFolder);
+  }
+
+  /**
+   * Move of the already resolved item; refreshing both folders is left to
+   * the caller.
+   */
+  void moveRenameAndCheckInFile(File f, Folder newFolder, String newName, java.io.File ioFile, String comment) throws VcsException {
     try{
       f.move(newFolder);
       f.setName(newName);
-      f.checkinFrom(new java.io.File((newParentPath + "/" + newName).replace('/', SEP)), comment, Item.LockType.UNCHANGED, true, false, true);
-
-      newFolder.refreshItems(newFolder.getTypeNames().FILE, null, 0);
-      oldFolder.refreshItems(oldFolder.getTypeNames().FILE, null, 0);
+      f.checkinFrom(ioFile, comment, Item.LockType.UNCHANGED, true, false, true);
+      myPristineStore.forget(f);
     }
     catch(Exception e){
       LOG.debug(e);
@@ -842,7 +1086,7 @@ public class StarteamVcs extends AbstractVcs
     if (LOG.isDebugEnabled())
       LOG.debug("enter: addDirectory(parentPath='" + parentPath + "' name='" + name + "')");
 
-    refresh();
+    refreshIfStale();
     final Folder parent = findFolder(parentPath);
     if (parent == null) error(FOLDER_NOT_FOUND_IN_STARTEAM, parentPath);
 
@@ -855,12 +1099,43 @@ public class StarteamVcs extends AbstractVcs
     }
   }
 
+  /**
+   * Refresh the whole folder tree from the server. Concurrent requests are
+   * merged into a single round-trip.
+   */
   public void refresh() throws VcsException
+  {
+    //  An explicit refresh also drops the statuses remembered for the
+    //  untouched working files, even if it joins a running refresh.
+    myLocalSnapshot.clear();
+    myRefreshCoordinator.refresh( true );
+
+    if( myConfiguration.INDEX_HISTORY )
+      myHistoryIndex.scheduleUpdate();
+  }
+
+  /**
+   * Used by the operations on particular items: within the configured staleness
+   * period only folders changed by the plugin itself are refreshed.
+   */
+  public void refreshIfStale() throws VcsException
+  {
+    myRefreshCoordinator.refresh( false );
+  }
+
+  public void refreshStaleFolders() throws VcsException
+  {
+    myRefreshCoordinator.refreshStaleFolders();
+  }
+
+  void refreshView() throws VcsException
   {
     if( LOG.isDebugEnabled() ) LOG.debug("enter: refresh()");
 
     try {
       myView.refreshFolders();
+      myItemCache.clear();
+      myLocalSnapshot.clear();
     }
     catch( Exception e){
       LOG.debug( e );
@@ -868,7 +1143,23 @@ public class StarteamVcs extends AbstractVcs
     }
   }
 
-  private Folder addFolder(final Folder parentFolder, String name)
+  void refreshFolderItems( Folder folder ) throws VcsException
+  {
+    if( LOG.isDebugEnabled() ) LOG.debug("enter: refreshFolderItems(folder='" + folder.getName() + "')");
+
+    try {
+      folder.refreshItems(folder.getTypeNames().FOLDER, null, 0);
+      folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+      myItemCache.invalidateFolder(folder);
+      myLocalSnapshot.forgetFolder( new java.io.File( folder.getPath() ) );
+    }
+    catch( Exception e){
+      LOG.debug( e );
+      throw new VcsException( e );
+    }
+  }
+
+  Folder addFolder(final Folder parentFolder, String name)
   {
     final Folder[] folders = getSubFolders(parentFolder);
 
@@ -881,6 +1172,8 @@ public class StarteamVcs extends AbstractVcs
     folder.setName(name);
     folder.setDefaultPathFragment(name);
     folder.update();
+    myItemCache.invalidateFolder(parentFolder);
+    myRefreshCoordinator.markStale(parentFolder);
     return folder;
   }
 
@@ -901,6 +1194,34 @@ public class StarteamVcs extends AbstractVcs
   public void refreshFolder( Folder folder )
   {
     folder.refreshItems(myServer.getTypeNames().FILE, null, -1 );
+    myItemCache.invalidateAllFiles();
+  }
+
+  /**
+   * Re-read the file items of the folder so that statuses of all its files can
+   * be computed without contacting the server for each of them.
+   */
+  public void refreshFiles( Folder folder )
+  {
+    folder.refreshItems(folder.getTypeNames().FILE, null, 0);
+    myItemCache.invalidateFiles(folder);
+  }
+
+  public void removeFolder( Folder folder )
+  {
+    Folder parent = folder.getParentFolder();
+    folder.remove();
+    myItemCache.invalidateFolder(parent);
+    myRefreshCoordinator.markStale(parent);
+  }
+
+  public void removeFile( File file )
+  {
+    Folder parent = file.getParentFolder();
+    file.remove();
+    myPristineStore.forget(file);
+    myItemCache.invalidateFiles(parent);
+    myRefreshCoordinator.markStale(parent);
   }
 
   public boolean isFileIgnored( VirtualFile file )
@@ -923,6 +1244,25 @@ public class StarteamVcs extends AbstractVcs
     return (rootPath != null) && path.startsWith( rootPath );
   }
 
+  @Nullable
+  Folder getRootFolder()
+  {
+    return myView == null ? null : myView.getRootFolder();
+  }
+
+  /**
+   * Directory under the IDE system directory for the data kept per server view.
+   */
+  java.io.File getSystemDirectory()
+  {
+    String view = myConfiguration.SERVER + "_" + myConfiguration.PORT + "_" + myConfiguration.PROJECT + "_" + myConfiguration.VIEW;
+    StringBuilder name = new StringBuilder( view.length() );
+    for( char c : view.toCharArray() )
+      name.append( Character.isLetterOrDigit( c ) || c == '.' || c == '-' ? c : '_' );
+
+    return new java.io.File( PathManager.getSystemPath(), "starteam" + SEP + name );
+  }
+
   @Nullable
   private String getRootFolderPath()
   {
@@ -20,6 +20,7 @@ import com.intellij.openapi.util.WriteExternalException;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.EditFileProvider;
 import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.annotate.AnnotationProvider;
 import com.intellij.openapi.vcs.changes.ChangeProvider;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
 import com.intellij.openapi.vcs.history.VcsHistoryProvider;
@@ -143,6 +144,11 @@ public class StarteamVcsAdapter extends AbstractVcs implements ProjectComponent,
     return (getStarteamVcs() != null) ? getStarteamVcs().getVcsHistoryProvider() : null;
   }
 
+  @Nullable
+  public AnnotationProvider getAnnotationProvider(){
+    return (getStarteamVcs() != null) ? getStarteamVcs().getAnnotationProvider() : null;
+  }
+
   public void loadSettings() {
     super.loadSettings();
     if (getStarteamVcs() != null) {
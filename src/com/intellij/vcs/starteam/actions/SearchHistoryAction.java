@@ -0,0 +1,144 @@
+package com.intellij.vcs.starteam.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.vcs.starteam.StarteamBundle;
+import com.intellij.vcs.starteam.StarteamConfiguration;
+import com.intellij.vcs.starteam.StarteamHistoryIndex;
+import com.intellij.vcs.starteam.StarteamVcs;
+import com.intellij.vcs.starteam.StarteamVcsAdapter;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Searches the revisions kept in the local history index by author, comment
+ * and age, without contacting the server.
+ */
+public class SearchHistoryAction extends AnAction
+{
+  //  Number of the newest matching revisions shown.
+  private static final int MAX_SHOWN = 50;
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  public void actionPerformed( AnActionEvent e )
+  {
+    Project project = e.getData( PlatformDataKeys.PROJECT );
+    StarteamVcs vcs = getVcs( project );
+    if( vcs == null )
+      return;
+
+    SearchDialog dialog = new SearchDialog( project );
+    dialog.show();
+    if( !dialog.isOK() )
+      return;
+
+    Date from = null;
+    String days = dialog.myFldDays.getText().trim();
+    if( days.length() > 0 )
+    {
+      try
+      {
+        from = new Date( System.currentTimeMillis() - Integer.parseInt( days ) * DAY );
+      }
+      catch( NumberFormatException ex )
+      {
+        Messages.showErrorDialog( project, StarteamBundle.message( "message.text.search.history.invalid.days" ),
+                                  StarteamBundle.message( "message.title.search.history" ) );
+        return;
+      }
+    }
+
+    List<StarteamHistoryIndex.Entry> entries = vcs.getHistoryIndex().search( getText( dialog.myFldAuthor ),
+                                                                             getText( dialog.myFldComment ), from, null );
+    if( entries.isEmpty() )
+    {
+      Messages.showMessageDialog( project, StarteamBundle.message( "message.text.search.history.nothing.found" ),
+                                  StarteamBundle.message( "message.title.search.history" ), Messages.getInformationIcon() );
+      return;
+    }
+
+    DateFormat format = DateFormat.getDateTimeInstance( DateFormat.SHORT, DateFormat.SHORT );
+    StringBuilder text = new StringBuilder();
+    for( int i = 0; i < entries.size() && i < MAX_SHOWN; i++ )
+    {
+      StarteamHistoryIndex.Entry entry = entries.get( i );
+      String comment = entry.comment.trim();
+      int eol = comment.indexOf( '\n' );
+      text.append( format.format( new Date( entry.modified ) ) ).append( "  " ).append( entry.author ).append( "  " )
+          .append( entry.path ).append( " #" ).append( entry.revision ).append( "  " )
+          .append( eol < 0 ? comment : comment.substring( 0, eol ) ).append( '\n' );
+    }
+    if( entries.size() > MAX_SHOWN )
+      text.append( StarteamBundle.message( "message.text.search.history.more", entries.size() - MAX_SHOWN ) );
+
+    Messages.showMessageDialog( project, text.toString(), StarteamBundle.message( "message.title.search.history" ),
+                                Messages.getInformationIcon() );
+  }
+
+  public void update( AnActionEvent e )
+  {
+    super.update( e );
+    Project project = e.getData( PlatformDataKeys.PROJECT );
+    boolean visible = getVcs( project ) != null;
+    e.getPresentation().setVisible( visible );
+    e.getPresentation().setEnabled( visible && project.getComponent( StarteamConfiguration.class ).INDEX_HISTORY );
+  }
+
+  @Nullable
+  private static StarteamVcs getVcs( @Nullable Project project )
+  {
+    if( project == null )
+      return null;
+    StarteamVcsAdapter adapter = project.getComponent( StarteamVcsAdapter.class );
+    return adapter == null ? null : adapter.getStarteamVcs();
+  }
+
+  @Nullable
+  private static String getText( JTextField field )
+  {
+    String text = field.getText().trim();
+    return text.length() == 0 ? null : text;
+  }
+
+  private static class SearchDialog extends DialogWrapper
+  {
+    private final JTextField myFldAuthor = new JTextField( 20 );
+    private final JTextField myFldComment = new JTextField( 20 );
+    private final JTextField myFldDays = new JTextField( 5 );
+
+    private SearchDialog( Project project )
+    {
+      super( project, false );
+      setTitle( StarteamBundle.message( "message.title.search.history" ) );
+      init();
+    }
+
+    @Nullable
+    protected JComponent createCenterPanel()
+    {
+      JPanel panel = new JPanel( new GridLayout( 3, 2, 4, 4 ) );
+      panel.add( new JLabel( StarteamBundle.message( "label.search.history.author" ) ) );
+      panel.add( myFldAuthor );
+      panel.add( new JLabel( StarteamBundle.message( "label.search.history.comment" ) ) );
+      panel.add( myFldComment );
+      panel.add( new JLabel( StarteamBundle.message( "label.search.history.days" ) ) );
+      panel.add( myFldDays );
+      return panel;
+    }
+
+    public JComponent getPreferredFocusedComponent()
+    {
+      return myFldAuthor;
+    }
+  }
+}
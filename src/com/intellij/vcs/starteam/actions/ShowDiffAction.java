@@ -2,8 +2,6 @@ package com.intellij.vcs.starteam.actions;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.diff.*;
-import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.project.Project;
@@ -12,12 +10,13 @@ import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
 import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcs.starteam.StarteamBundle;
+import com.intellij.vcs.starteam.StarteamContent;
 import com.intellij.vcs.starteam.StarteamVcs;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 /**
  * @author mike
@@ -26,21 +25,11 @@ public class ShowDiffAction extends BasicAction
 {
   private static final Logger LOG = Logger.getInstance("#com.intellij.vcs.starteam.actions.ShowDiffAction");
 
-  private static byte[] getContentOf(VirtualFile file) throws IOException {
-    Document document = FileDocumentManager.getInstance().getCachedDocument(file);
-    if (document == null)
-      return file.contentsToByteArray();
-    return document.getText().getBytes(file.getCharset().name());
-  }
-
   protected void perform(Project project, StarteamVcs activeVcs, VirtualFile file) throws VcsException
   {
+    String upToDateFilePath = file.getPresentableUrl();
+    final StarteamContent vcsContent = activeVcs.loadFileContent(upToDateFilePath);
     try {
-      byte[] localContent = getContentOf(file);
-      String upToDateFilePath = file.getPresentableUrl();
-      final byte[] vcsContent = activeVcs.getFileContent(upToDateFilePath);
-      if (vcsContent == null) return;
-
       /*
       final Object modalContext = context.getData(DataConstants.IS_MODAL_CONTEXT);
       Object modalHint = modalContext != null && modalContext.equals(Boolean.TRUE) ?
@@ -51,7 +40,7 @@ public class ShowDiffAction extends BasicAction
       FileType fileType = FileTypeManager.getInstance().getFileTypeByFile(file);
 
       if (fileType.isBinary()){
-        if (Arrays.equals(localContent, vcsContent)){
+        if (vcsContent.contentEquals(file.getInputStream())){
           Messages.showMessageDialog(StarteamBundle.message("message.text.diff.binary.contents.equal"), StarteamBundle.message("message.title.diff.contents.equal"), Messages.getInformationIcon());
         } else {
           Messages.showMessageDialog(StarteamBundle.message("message.text.diff.binary.contents.different"), StarteamBundle.message("message.title.contents.different"), Messages.getInformationIcon());
@@ -59,7 +48,7 @@ public class ShowDiffAction extends BasicAction
         return;
       }
 
-      BinaryContent content = new BinaryContent(vcsContent, file.getCharset(), fileType);
+      DiffContent content = createContent(project, vcsContent, file, fileType);
       SimpleDiffRequest diffRequest = new SimpleDiffRequest(project, StarteamBundle.message("diff.content.title.file.history",
                                                                                             file.getPresentableUrl()));
       diffRequest.setContentTitles(StarteamBundle.message("diff.content.title.repository.version", activeVcs.getDisplayName()), StarteamBundle.message("diff.content.title.local.version"));
@@ -72,6 +61,31 @@ public class ShowDiffAction extends BasicAction
     catch (IOException e) {
       LOG.error(e);
     }
+    finally {
+      vcsContent.dispose();
+    }
+  }
+
+  /**
+   * Large repository contents are compared straight from the temporary file
+   * they were spilled to, rather than being loaded into a byte array. The file
+   * is made read-only first so that the repository side of the diff cannot be
+   * edited.
+   */
+  private static DiffContent createContent(Project project, StarteamContent vcsContent, VirtualFile file, FileType fileType)
+    throws IOException {
+    if (vcsContent.isInMemory()) {
+      return new BinaryContent(vcsContent.getBytes(), file.getCharset(), fileType);
+    }
+
+    //noinspection ConstantConditions
+    vcsContent.getFile().setReadOnly();
+    VirtualFile tempFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(vcsContent.getFile());
+    if (tempFile != null) {
+      tempFile.setCharset(file.getCharset());
+      return new FileContent(project, tempFile);
+    }
+    return new SimpleContent(vcsContent.loadText(file.getCharset()), fileType);
   }
 
   protected boolean isEnabled(Project project, AbstractVcs vcs, VirtualFile file) {
@@ -0,0 +1,61 @@
+package com.intellij.vcs.starteam;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class AnalyzeParentTest extends TestCase
+{
+  private final Set<String> myNewFolders = new HashSet<String>();
+  private final List<String> myAsked = new ArrayList<String>();
+
+  private final StarteamCheckinEnvironment.ParentFolders<String> myParents = new StarteamCheckinEnvironment.ParentFolders<String>()
+  {
+    public String getParent( String path )
+    {
+      int index = path.lastIndexOf( '/' );
+      return (index > 0) ? path.substring( 0, index ) : null;
+    }
+
+    public boolean isNew( String folder )
+    {
+      myAsked.add( folder );
+      return myNewFolders.contains( folder );
+    }
+  };
+
+  public void testCollectsNewAncestors()
+  {
+    myNewFolders.addAll( Arrays.asList( "/p/a", "/p/a/b" ) );
+
+    Set<String> folders = new HashSet<String>();
+    StarteamCheckinEnvironment.analyzeParent( "/p/a/b/F.java", folders, new HashSet<String>(), myParents );
+
+    assertEquals( new HashSet<String>( Arrays.asList( "/p/a", "/p/a/b" ) ), folders );
+    assertEquals( Arrays.asList( "/p/a/b", "/p/a", "/p" ), myAsked );
+  }
+
+  public void testStopsAtVersionedFolder()
+  {
+    myNewFolders.addAll( Arrays.asList( "/p/a/b", "/p" ) );
+
+    Set<String> folders = new HashSet<String>();
+    StarteamCheckinEnvironment.analyzeParent( "/p/a/b/F.java", folders, new HashSet<String>(), myParents );
+
+    assertEquals( Collections.singleton( "/p/a/b" ), folders );
+    assertEquals( Arrays.asList( "/p/a/b", "/p/a" ), myAsked );
+  }
+
+  public void testAsksEveryFolderOnce()
+  {
+    myNewFolders.addAll( Arrays.asList( "/p/a", "/p/a/b", "/p/a/c" ) );
+
+    Set<String> folders = new HashSet<String>();
+    Set<String> visited = new HashSet<String>();
+    for( String file : Arrays.asList( "/p/a/b/F.java", "/p/a/b/G.java", "/p/a/c/H.java", "/p/a/I.java" ) )
+      StarteamCheckinEnvironment.analyzeParent( file, folders, visited, myParents );
+
+    assertEquals( new HashSet<String>( Arrays.asList( "/p/a", "/p/a/b", "/p/a/c" ) ), folders );
+    assertEquals( Arrays.asList( "/p/a/b", "/p/a", "/p", "/p/a/c" ), myAsked );
+  }
+}
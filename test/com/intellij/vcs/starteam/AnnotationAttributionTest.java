@@ -0,0 +1,89 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.vcs.VcsException;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AnnotationAttributionTest extends TestCase
+{
+  public void testLinesAttributedToAddingRevision() throws VcsException
+  {
+    Texts texts = new Texts( new String[]{ "a", "b", "c", "d" },
+                             new String[]{ "a", "c", "d" },
+                             new String[]{ "a", "d" } );
+
+    int[] lines = StarteamAnnotationProvider.attributeLines( texts );
+    assertEquals( "[2, 0, 1, 2]", toString( lines ) );
+  }
+
+  public void testChangedLineAttributedToNewestChange() throws VcsException
+  {
+    Texts texts = new Texts( new String[]{ "a", "B" },
+                             new String[]{ "a", "b" },
+                             new String[]{ "a", "b" },
+                             new String[]{ "a" } );
+
+    int[] lines = StarteamAnnotationProvider.attributeLines( texts );
+    assertEquals( "[3, 0]", toString( lines ) );
+  }
+
+  public void testDeletedLinesDoNotShiftAttribution() throws VcsException
+  {
+    Texts texts = new Texts( new String[]{ "a", "c" },
+                             new String[]{ "a", "b", "c" },
+                             new String[]{ "c" } );
+
+    int[] lines = StarteamAnnotationProvider.attributeLines( texts );
+    assertEquals( "[1, 2]", toString( lines ) );
+  }
+
+  public void testStopsWhenEveryLineIsAttributed() throws VcsException
+  {
+    Texts texts = new Texts( new String[]{ "a", "b" },
+                             new String[]{ "a" },
+                             new String[]{},
+                             new String[]{ "x" } );
+
+    int[] lines = StarteamAnnotationProvider.attributeLines( texts );
+    assertEquals( "[1, 0]", toString( lines ) );
+    assertEquals( "[0, 1, 2]", texts.loaded.toString() );
+  }
+
+  public void testEmptyRevision() throws VcsException
+  {
+    Texts texts = new Texts( new String[]{}, new String[]{ "a" } );
+
+    int[] lines = StarteamAnnotationProvider.attributeLines( texts );
+    assertEquals( 0, lines.length );
+    assertEquals( "[0]", texts.loaded.toString() );
+  }
+
+  private static String toString( int[] lines )
+  {
+    List<Integer> list = new ArrayList<Integer>();
+    for( int line : lines )
+      list.add( line );
+    return list.toString();
+  }
+
+  private static class Texts implements StarteamAnnotationProvider.RevisionLines
+  {
+    private final String[][] myTexts;
+    public final List<Integer> loaded = new ArrayList<Integer>();
+
+    public Texts( String[]... texts )
+    {
+      myTexts = texts;
+    }
+
+    public int getCount()  {  return myTexts.length;  }
+
+    public String[] getLines( int offset )
+    {
+      loaded.add( offset );
+      return myTexts[ offset ];
+    }
+  }
+}
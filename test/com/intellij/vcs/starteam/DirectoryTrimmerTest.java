@@ -0,0 +1,80 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class DirectoryTrimmerTest extends TestCase
+{
+  private File myDir;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory( "trimmer", null );
+  }
+
+  protected void tearDown() throws Exception
+  {
+    FileUtil.delete( myDir );
+    super.tearDown();
+  }
+
+  public void testNothingDeletedUnderLimit() throws IOException
+  {
+    createFile( "1", 4, 1000 );
+    createFile( "2", 4, 2000 );
+
+    assertEquals( 0, DirectoryTrimmer.trim( myDir, 8 ) );
+    assertTrue( new File( myDir, "1" ).isFile() );
+    assertTrue( new File( myDir, "2" ).isFile() );
+  }
+
+  public void testOldestDeletedFirst() throws IOException
+  {
+    createFile( "1", 4, 3000 );
+    createFile( "2", 4, 1000 );
+    createFile( "3", 4, 2000 );
+
+    assertEquals( 2, DirectoryTrimmer.trim( myDir, 5 ) );
+    assertTrue( new File( myDir, "1" ).isFile() );
+    assertFalse( new File( myDir, "2" ).exists() );
+    assertFalse( new File( myDir, "3" ).exists() );
+  }
+
+  public void testTouchedFileIsKept() throws IOException
+  {
+    createFile( "1", 4, 1000 );
+    createFile( "2", 4, 2000 );
+    DirectoryTrimmer.touch( new File( myDir, "1" ) );
+
+    assertEquals( 1, DirectoryTrimmer.trim( myDir, 4 ) );
+    assertTrue( new File( myDir, "1" ).isFile() );
+    assertFalse( new File( myDir, "2" ).exists() );
+  }
+
+  public void testSubdirectoriesAreLeftAlone() throws IOException
+  {
+    File sub = new File( myDir, "sub" );
+    assertTrue( sub.mkdir() );
+    sub.setLastModified( 1000 );
+    createFile( "1", 4, 2000 );
+
+    assertEquals( 1, DirectoryTrimmer.trim( myDir, 0 ) );
+    assertTrue( sub.isDirectory() );
+  }
+
+  public void testMissingDirectory()
+  {
+    assertEquals( 0, DirectoryTrimmer.trim( new File( myDir, "missing" ), 0 ) );
+  }
+
+  private void createFile( String name, int size, long stamp ) throws IOException
+  {
+    File file = new File( myDir, name );
+    FileUtil.writeToFile( file, new byte[ size ] );
+    assertTrue( file.setLastModified( stamp ) );
+  }
+}
@@ -0,0 +1,50 @@
+package com.intellij.vcs.starteam;
+
+import junit.framework.TestCase;
+
+public class FolderTrieTest extends TestCase
+{
+  private StarteamCheckinEnvironment.FolderTrie myTrie;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    myTrie = new StarteamCheckinEnvironment.FolderTrie();
+    myTrie.add( "/work/project/src/new" );
+    myTrie.add( "C:/Work/Other" );
+  }
+
+  public void testFolderItself()
+  {
+    assertTrue( myTrie.containsAncestorOf( "/work/project/src/new" ) );
+  }
+
+  public void testFilesUnderFolder()
+  {
+    assertTrue( myTrie.containsAncestorOf( "/work/project/src/new/A.java" ) );
+    assertTrue( myTrie.containsAncestorOf( "/work/project/src/new/pkg/B.java" ) );
+  }
+
+  public void testCaseInsensitive()
+  {
+    assertTrue( myTrie.containsAncestorOf( "c:/work/other/A.java" ) );
+    assertTrue( myTrie.containsAncestorOf( "/WORK/Project/SRC/New/A.java" ) );
+  }
+
+  public void testParentOfFolder()
+  {
+    assertFalse( myTrie.containsAncestorOf( "/work/project/src" ) );
+    assertFalse( myTrie.containsAncestorOf( "/work/project/src/Old.java" ) );
+  }
+
+  public void testSiblingWithCommonPrefix()
+  {
+    assertFalse( myTrie.containsAncestorOf( "/work/project/src/newer/A.java" ) );
+    assertFalse( myTrie.containsAncestorOf( "C:/Work/OtherFolder" ) );
+  }
+
+  public void testEmpty()
+  {
+    assertFalse( new StarteamCheckinEnvironment.FolderTrie().containsAncestorOf( "/work/A.java" ) );
+  }
+}
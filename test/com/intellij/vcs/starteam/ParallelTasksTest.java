@@ -0,0 +1,138 @@
+package com.intellij.vcs.starteam;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelTasksTest extends TestCase
+{
+  public void testConcurrencyIsBoundedByThreads()
+  {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    ParallelTasks tasks = new ParallelTasks( "test", 3 );
+    for( int i = 0; i < 12; i++ )
+    {
+      tasks.submit( new Runnable()
+      {
+        public void run()
+        {
+          int now = running.incrementAndGet();
+          synchronized( maxRunning )
+          {
+            maxRunning.set( Math.max( maxRunning.get(), now ) );
+          }
+          sleep( 20 );
+          running.decrementAndGet();
+        }
+      });
+    }
+    tasks.await( null );
+
+    assertTrue( maxRunning.get() <= 3 );
+    assertEquals( 0, running.get() );
+  }
+
+  public void testTasksSubmittedByTasksAreAwaited()
+  {
+    final AtomicInteger done = new AtomicInteger();
+    final ParallelTasks tasks = new ParallelTasks( "test", 2 );
+    for( int i = 0; i < 4; i++ )
+    {
+      tasks.submit( new Runnable()
+      {
+        public void run()
+        {
+          sleep( 10 );
+          tasks.submit( new Runnable()
+          {
+            public void run()
+            {
+              sleep( 10 );
+              done.incrementAndGet();
+            }
+          });
+          done.incrementAndGet();
+        }
+      });
+    }
+    tasks.await( null );
+
+    assertEquals( 8, done.get() );
+  }
+
+  public void testFailureIsRethrown()
+  {
+    ParallelTasks tasks = new ParallelTasks( "test", 2 );
+    tasks.submit( new Runnable()
+    {
+      public void run()
+      {
+        throw new IllegalStateException( "failed" );
+      }
+    });
+    try
+    {
+      tasks.await( null );
+      fail();
+    }
+    catch( IllegalStateException e )
+    {
+      assertEquals( "failed", e.getMessage() );
+    }
+  }
+
+  public void testSingleThreadRunsOnSubmit()
+  {
+    final Thread caller = Thread.currentThread();
+    final AtomicInteger done = new AtomicInteger();
+    ParallelTasks tasks = new ParallelTasks( "test", 1 );
+    tasks.submit( new Runnable()
+    {
+      public void run()
+      {
+        assertSame( caller, Thread.currentThread() );
+        done.incrementAndGet();
+      }
+    });
+
+    assertEquals( 1, done.get() );
+    tasks.await( null );
+  }
+
+  public void testPollRunsOnWaitingThread()
+  {
+    final Thread caller = Thread.currentThread();
+    final AtomicInteger polls = new AtomicInteger();
+    ParallelTasks tasks = new ParallelTasks( "test", 2 );
+    tasks.submit( new Runnable()
+    {
+      public void run()
+      {
+        sleep( 300 );
+      }
+    });
+    tasks.await( null, new Runnable()
+    {
+      public void run()
+      {
+        assertSame( caller, Thread.currentThread() );
+        polls.incrementAndGet();
+      }
+    });
+
+    assertTrue( polls.get() > 0 );
+  }
+
+  private static void sleep( long millis )
+  {
+    try
+    {
+      Thread.sleep( millis );
+    }
+    catch( InterruptedException e )
+    {
+      throw new RuntimeException( e );
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.starbase.starteam.Status;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class SbasTimestampHeuristicTest extends TestCase
+{
+  private static final long RECORDED = 1300000000000L;
+
+  private final SbasTimestampHeuristic myHeuristic = new SbasTimestampHeuristic();
+  private File myDir;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory( "sbas", null );
+  }
+
+  protected void tearDown() throws Exception
+  {
+    FileUtil.delete( myDir );
+    super.tearDown();
+  }
+
+  public void testNotNewerThanRecordIsCurrent() throws IOException
+  {
+    File file = createFile( myDir, "A.java", RECORDED - 1000 );
+    createRecord( myDir, "A.java" );
+    assertEquals( Status.CURRENT, myHeuristic.getStatus( file ) );
+  }
+
+  public void testNewerThanRecordIsModified() throws IOException
+  {
+    File file = createFile( myDir, "A.java", RECORDED + 1000 );
+    createRecord( myDir, "A.java" );
+    assertEquals( Status.MODIFIED, myHeuristic.getStatus( file ) );
+  }
+
+  public void testRecordWithoutFileIsMissing() throws IOException
+  {
+    createRecord( myDir, "A.java" );
+    assertEquals( Status.MISSING, myHeuristic.getStatus( new File( myDir, "A.java" ) ) );
+  }
+
+  public void testFileWithoutRecordIsNew() throws IOException
+  {
+    createRecord( myDir, "A.java" );
+    File file = createFile( myDir, "B.java", RECORDED );
+    assertEquals( Status.NEW, myHeuristic.getStatus( file ) );
+  }
+
+  public void testNoRepositoryIsUnknown() throws IOException
+  {
+    File file = createFile( myDir, "A.java", RECORDED );
+    assertEquals( Status.UNKNOWN, myHeuristic.getStatus( file ) );
+  }
+
+  public void testNeitherFileNorRecordIsUnknown() throws IOException
+  {
+    createRecord( myDir, "A.java" );
+    assertEquals( Status.UNKNOWN, myHeuristic.getStatus( new File( myDir, "B.java" ) ) );
+  }
+
+  public void testRepositoryReadOncePerFolder() throws IOException
+  {
+    File file = createFile( myDir, "A.java", RECORDED - 1000 );
+    createRecord( myDir, "A.java" );
+    assertEquals( Status.CURRENT, myHeuristic.getStatus( file ) );
+
+    //  Records written afterwards are not seen by the same instance.
+    File added = createFile( myDir, "B.java", RECORDED - 1000 );
+    createRecord( myDir, "B.java" );
+    assertEquals( Status.NEW, myHeuristic.getStatus( added ) );
+    assertEquals( Status.CURRENT, new SbasTimestampHeuristic().getStatus( added ) );
+  }
+
+  private static File createFile( File dir, String name, long stamp ) throws IOException
+  {
+    File file = new File( dir, name );
+    dir.mkdirs();
+    FileUtil.writeToFile( file, name.getBytes() );
+    assertTrue( file.setLastModified( stamp ) );
+    return file;
+  }
+
+  private static void createRecord( File dir, String name ) throws IOException
+  {
+    createFile( new File( dir, StarteamVcs.VERSIONED_FOLDER_SIG ), name, RECORDED );
+  }
+}
@@ -0,0 +1,93 @@
+package com.intellij.vcs.starteam;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class SpillingOutputStreamTest extends TestCase
+{
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  public void testSmallContentStaysInMemory() throws IOException
+  {
+    SpillingOutputStream stream = new SpillingOutputStream( 4, null );
+    stream.write( bytes( "abcd" ) );
+
+    StarteamContent content = stream.getContent();
+    assertTrue( content.isInMemory() );
+    assertNull( content.getFile() );
+    assertTrue( Arrays.equals( bytes( "abcd" ), content.getBytes() ) );
+  }
+
+  public void testLargeContentSpillsToFile() throws IOException
+  {
+    SpillingOutputStream stream = new SpillingOutputStream( 4, ".txt" );
+    stream.write( bytes( "abc" ) );
+    stream.write( 'd' );
+    stream.write( bytes( "xefx" ), 1, 2 );
+
+    StarteamContent content = stream.getContent();
+    try
+    {
+      assertFalse( content.isInMemory() );
+      assertNull( content.getBytes() );
+      assertTrue( content.getFile().getName().endsWith( ".txt" ) );
+      assertEquals( 6, content.getLength() );
+      assertEquals( "abcdef", content.loadText( UTF8 ) );
+      assertTrue( content.contentEquals( new ByteArrayInputStream( bytes( "abcdef" ) ) ) );
+      assertFalse( content.contentEquals( new ByteArrayInputStream( bytes( "abcde" ) ) ) );
+    }
+    finally
+    {
+      content.dispose();
+    }
+  }
+
+  public void testDisposeRemovesFile() throws IOException
+  {
+    SpillingOutputStream stream = new SpillingOutputStream( 0, null );
+    stream.write( 'a' );
+
+    StarteamContent content = stream.getContent();
+    File file = content.getFile();
+    assertTrue( file.isFile() );
+
+    file.setReadOnly();
+    content.dispose();
+    assertFalse( file.exists() );
+  }
+
+  public void testDiscardRemovesFile() throws IOException
+  {
+    SpillingOutputStream stream = new SpillingOutputStream( 0, null );
+    stream.write( 'a' );
+    File file = stream.getContent().getFile();
+
+    stream.discard();
+    assertFalse( file.exists() );
+  }
+
+  public void testWriteAfterCloseFails() throws IOException
+  {
+    SpillingOutputStream stream = new SpillingOutputStream( 4, null );
+    stream.close();
+    try
+    {
+      stream.write( 'a' );
+      fail();
+    }
+    catch( IOException e )
+    {
+      //  expected
+    }
+  }
+
+  private static byte[] bytes( String text )
+  {
+    return text.getBytes( UTF8 );
+  }
+}
@@ -0,0 +1,67 @@
+package com.intellij.vcs.starteam;
+
+import junit.framework.TestCase;
+
+public class StarteamContentCacheTest extends TestCase
+{
+  public void testEvictsLeastRecentlyUsed()
+  {
+    StarteamContentCache cache = new StarteamContentCache( 10 );
+    cache.put( "1:0", new byte[ 4 ] );
+    cache.put( "2:0", new byte[ 4 ] );
+
+    //  Touching the first entry makes the second one the eldest.
+    assertNotNull( cache.get( "1:0" ) );
+    cache.put( "3:0", new byte[ 4 ] );
+
+    assertTrue( cache.contains( "1:0" ) );
+    assertFalse( cache.contains( "2:0" ) );
+    assertTrue( cache.contains( "3:0" ) );
+  }
+
+  public void testEvictsUntilContentFits()
+  {
+    StarteamContentCache cache = new StarteamContentCache( 10 );
+    cache.put( "1:0", new byte[ 3 ] );
+    cache.put( "2:0", new byte[ 3 ] );
+    cache.put( "3:0", new byte[ 3 ] );
+    cache.put( "4:0", new byte[ 8 ] );
+
+    assertFalse( cache.contains( "1:0" ) );
+    assertFalse( cache.contains( "2:0" ) );
+    assertFalse( cache.contains( "3:0" ) );
+    assertTrue( cache.contains( "4:0" ) );
+  }
+
+  public void testReplacedEntryIsCountedOnce()
+  {
+    StarteamContentCache cache = new StarteamContentCache( 10 );
+    cache.put( "1:0", new byte[ 6 ] );
+    cache.put( "1:0", new byte[ 6 ] );
+    cache.put( "2:0", new byte[ 4 ] );
+
+    assertTrue( cache.contains( "1:0" ) );
+    assertTrue( cache.contains( "2:0" ) );
+  }
+
+  public void testContentOverLimitIsNotCached()
+  {
+    StarteamContentCache cache = new StarteamContentCache( 10 );
+    cache.put( "1:0", new byte[ 4 ] );
+    cache.put( "2:0", new byte[ 11 ] );
+
+    assertTrue( cache.contains( "1:0" ) );
+    assertFalse( cache.contains( "2:0" ) );
+  }
+
+  public void testClear()
+  {
+    StarteamContentCache cache = new StarteamContentCache( 10 );
+    cache.put( "1:0", new byte[ 4 ] );
+    cache.clear();
+    cache.put( "2:0", new byte[ 10 ] );
+
+    assertNull( cache.get( "1:0" ) );
+    assertTrue( cache.contains( "2:0" ) );
+  }
+}
@@ -0,0 +1,99 @@
+package com.intellij.vcs.starteam;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class StarteamItemCacheTest extends TestCase
+{
+  private final StarteamItemCache myCache = new StarteamItemCache();
+  private int myLoads = 0;
+
+  private final StarteamItemCache.IndexLoader<Folder> myFolders = new StarteamItemCache.IndexLoader<Folder>()
+  {
+    public Map<String, Folder> load()
+    {
+      myLoads++;
+      return new HashMap<String, Folder>();
+    }
+  };
+
+  private final StarteamItemCache.IndexLoader<File> myFiles = new StarteamItemCache.IndexLoader<File>()
+  {
+    public Map<String, File> load()
+    {
+      myLoads++;
+      return new HashMap<String, File>();
+    }
+  };
+
+  public void testIndexLoadedOnce()
+  {
+    Map<String, File> index = myCache.getFileIndex( 1, myFiles );
+    assertSame( index, myCache.getFileIndex( 1, myFiles ) );
+    assertEquals( 1, myLoads );
+  }
+
+  public void testIndicesKeyedByFolder()
+  {
+    assertNotSame( myCache.getFileIndex( 1, myFiles ), myCache.getFileIndex( 2, myFiles ) );
+    assertEquals( 2, myLoads );
+  }
+
+  public void testInvalidateFilesKeepsSubFolders()
+  {
+    Map<String, Folder> folders = myCache.getSubFolderIndex( 1, myFolders );
+    Map<String, File> files = myCache.getFileIndex( 1, myFiles );
+
+    myCache.invalidateFiles( 1 );
+
+    assertSame( folders, myCache.getSubFolderIndex( 1, myFolders ) );
+    assertNotSame( files, myCache.getFileIndex( 1, myFiles ) );
+  }
+
+  public void testInvalidateFolderDropsBoth()
+  {
+    Map<String, Folder> folders = myCache.getSubFolderIndex( 1, myFolders );
+    Map<String, File> files = myCache.getFileIndex( 1, myFiles );
+
+    myCache.invalidateFolder( 1 );
+
+    assertNotSame( folders, myCache.getSubFolderIndex( 1, myFolders ) );
+    assertNotSame( files, myCache.getFileIndex( 1, myFiles ) );
+  }
+
+  public void testInvalidateOtherFolder()
+  {
+    Map<String, File> files = myCache.getFileIndex( 1, myFiles );
+    myCache.invalidateFolder( 2 );
+    assertSame( files, myCache.getFileIndex( 1, myFiles ) );
+  }
+
+  public void testClear()
+  {
+    Map<String, Folder> folders = myCache.getSubFolderIndex( 1, myFolders );
+    myCache.clear();
+    assertNotSame( folders, myCache.getSubFolderIndex( 1, myFolders ) );
+  }
+
+  public void testIndexLoadedDuringInvalidationIsNotKept()
+  {
+    StarteamItemCache.IndexLoader<File> racing = new StarteamItemCache.IndexLoader<File>()
+    {
+      public Map<String, File> load()
+      {
+        myLoads++;
+        //  The folder changes while its items are being read.
+        myCache.invalidateFiles( 1 );
+        return new HashMap<String, File>();
+      }
+    };
+
+    Map<String, File> stale = myCache.getFileIndex( 1, racing );
+    assertNotSame( stale, myCache.getFileIndex( 1, myFiles ) );
+    assertEquals( 2, myLoads );
+  }
+}
@@ -0,0 +1,119 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class StarteamLocalSnapshotTest extends TestCase
+{
+  private static final int CURRENT = 0;
+  private static final int MODIFIED = 1;
+
+  private final StarteamLocalSnapshot mySnapshot = new StarteamLocalSnapshot();
+  private File myDir;
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory( "snapshot", null ).getCanonicalFile();
+  }
+
+  protected void tearDown() throws Exception
+  {
+    FileUtil.delete( myDir );
+    super.tearDown();
+  }
+
+  public void testRecordedStatusIsReused() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, MODIFIED );
+    assertEquals( MODIFIED, mySnapshot.getStatus( file ) );
+  }
+
+  public void testNothingRecorded() throws IOException
+  {
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( createFile( "A.java", "a" ) ) );
+  }
+
+  public void testChangedSizeDropsStatus() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, CURRENT );
+    long stamp = file.lastModified();
+
+    FileUtil.writeToFile( file, "ab".getBytes() );
+    file.setLastModified( stamp );
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( file ) );
+  }
+
+  public void testChangedTimeStampDropsStatus() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, CURRENT );
+
+    file.setLastModified( file.lastModified() - 10000 );
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( file ) );
+  }
+
+  public void testDeletedFileDropsStatus() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, CURRENT );
+
+    assertTrue( file.delete() );
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( file ) );
+  }
+
+  public void testRecordOfMissingFileForgets() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, CURRENT );
+    assertTrue( file.delete() );
+    mySnapshot.record( file, CURRENT );
+
+    FileUtil.writeToFile( file, "a".getBytes() );
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( file ) );
+  }
+
+  public void testForgetFolderDropsDirectChildrenOnly() throws IOException
+  {
+    File child = createFile( "A.java", "a" );
+    File nested = createFile( "pkg/B.java", "b" );
+    File sibling = createFile( "../" + myDir.getName() + "-other/C.java", "c" );
+    try
+    {
+      mySnapshot.record( child, CURRENT );
+      mySnapshot.record( nested, CURRENT );
+      mySnapshot.record( sibling, CURRENT );
+
+      mySnapshot.forgetFolder( myDir );
+
+      assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( child ) );
+      assertEquals( CURRENT, mySnapshot.getStatus( nested ) );
+      assertEquals( CURRENT, mySnapshot.getStatus( sibling ) );
+    }
+    finally
+    {
+      FileUtil.delete( sibling.getParentFile() );
+    }
+  }
+
+  public void testClear() throws IOException
+  {
+    File file = createFile( "A.java", "a" );
+    mySnapshot.record( file, CURRENT );
+    mySnapshot.clear();
+    assertEquals( StarteamLocalSnapshot.NO_STATUS, mySnapshot.getStatus( file ) );
+  }
+
+  private File createFile( String path, String content ) throws IOException
+  {
+    File file = new File( myDir, path ).getCanonicalFile();
+    file.getParentFile().mkdirs();
+    FileUtil.writeToFile( file, content.getBytes() );
+    return file;
+  }
+}
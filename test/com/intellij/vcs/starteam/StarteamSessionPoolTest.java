@@ -0,0 +1,199 @@
+package com.intellij.vcs.starteam;
+
+import com.intellij.openapi.vcs.VcsException;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StarteamSessionPoolTest extends TestCase
+{
+  private final AtomicInteger myOpened = new AtomicInteger();
+  private final AtomicInteger myClosed = new AtomicInteger();
+  private final AtomicInteger myRunning = new AtomicInteger();
+  private final AtomicInteger myMaxRunning = new AtomicInteger();
+
+  public void testConcurrencyIsBoundedBySessions() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 2 );
+    List<VcsException> errors = new ArrayList<VcsException>();
+    pool.run( "test", createTasks( 8, new Runnable()
+    {
+      public void run()
+      {
+        sleep( 20 );
+      }
+    }), errors, null );
+
+    assertTrue( errors.isEmpty() );
+    assertTrue( myMaxRunning.get() <= 2 );
+    assertTrue( myOpened.get() <= 2 );
+  }
+
+  public void testSessionsAreReused() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 2 );
+    final Set<StarteamSession> sessions = Collections.newSetFromMap( new ConcurrentHashMap<StarteamSession, Boolean>() );
+    for( int i = 0; i < 3; i++ )
+    {
+      List<StarteamSessionPool.SessionTask> tasks = new ArrayList<StarteamSessionPool.SessionTask>();
+      for( int j = 0; j < 4; j++ )
+      {
+        tasks.add( new StarteamSessionPool.SessionTask()
+        {
+          public void run( StarteamSession session )
+          {
+            sessions.add( session );
+          }
+        });
+      }
+      pool.run( "test", tasks, new ArrayList<VcsException>(), null );
+    }
+
+    assertTrue( sessions.size() <= 2 );
+    assertEquals( sessions.size(), myOpened.get() );
+  }
+
+  public void testNoSessionsStandsForOne() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 0 );
+    pool.run( "test", createTasks( 4, new Runnable()
+    {
+      public void run()
+      {
+      }
+    }), new ArrayList<VcsException>(), null );
+
+    assertEquals( 1, myMaxRunning.get() );
+    assertEquals( 1, myOpened.get() );
+  }
+
+  public void testErrorsAreCollected() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 2 );
+    List<StarteamSessionPool.SessionTask> tasks = new ArrayList<StarteamSessionPool.SessionTask>();
+    final AtomicInteger done = new AtomicInteger();
+    for( int i = 0; i < 4; i++ )
+    {
+      final boolean fail = (i % 2 == 0);
+      tasks.add( new StarteamSessionPool.SessionTask()
+      {
+        public void run( StarteamSession session ) throws VcsException
+        {
+          if( fail )
+            throw new VcsException( "failed" );
+          done.incrementAndGet();
+        }
+      });
+    }
+    List<VcsException> errors = new ArrayList<VcsException>();
+    pool.run( "test", tasks, errors, null );
+
+    assertEquals( 2, errors.size() );
+    assertEquals( 2, done.get() );
+    assertEquals( 0, myClosed.get() );
+  }
+
+  public void testUncheckedFailureIsRetriedOnNewSession() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 1 );
+    final List<StarteamSession> sessions = new ArrayList<StarteamSession>();
+    pool.run( new StarteamSessionPool.SessionTask()
+    {
+      public void run( StarteamSession session )
+      {
+        sessions.add( session );
+        if( sessions.size() == 1 )
+          throw new IllegalStateException( "connection lost" );
+      }
+    });
+
+    assertEquals( 2, sessions.size() );
+    assertNotSame( sessions.get( 0 ), sessions.get( 1 ) );
+    assertEquals( 1, myClosed.get() );
+  }
+
+  public void testCloseClosesIdleSessions() throws Exception
+  {
+    StarteamSessionPool pool = createPool( 2 );
+    pool.run( "test", createTasks( 4, new Runnable()
+    {
+      public void run()
+      {
+        sleep( 10 );
+      }
+    }), new ArrayList<VcsException>(), null );
+    pool.close();
+
+    assertEquals( myOpened.get(), myClosed.get() );
+  }
+
+  private StarteamSessionPool createPool( int sessions )
+  {
+    StarteamConfiguration configuration = new StarteamConfiguration( null );
+    configuration.SERVER_SESSIONS = sessions;
+    return new StarteamSessionPool( configuration )
+    {
+      protected StarteamSession openSession()
+      {
+        myOpened.incrementAndGet();
+        return new StarteamSession( null, null, null )
+        {
+          public boolean isConnected()
+          {
+            return true;
+          }
+
+          public void close()
+          {
+            myClosed.incrementAndGet();
+          }
+        };
+      }
+    };
+  }
+
+  private List<StarteamSessionPool.SessionTask> createTasks( int count, final Runnable work )
+  {
+    List<StarteamSessionPool.SessionTask> tasks = new ArrayList<StarteamSessionPool.SessionTask>();
+    for( int i = 0; i < count; i++ )
+    {
+      tasks.add( new StarteamSessionPool.SessionTask()
+      {
+        public void run( StarteamSession session )
+        {
+          int running = myRunning.incrementAndGet();
+          synchronized( myMaxRunning )
+          {
+            myMaxRunning.set( Math.max( myMaxRunning.get(), running ) );
+          }
+          try
+          {
+            work.run();
+          }
+          finally
+          {
+            myRunning.decrementAndGet();
+          }
+        }
+      });
+    }
+    return tasks;
+  }
+
+  private static void sleep( long millis )
+  {
+    try
+    {
+      Thread.sleep( millis );
+    }
+    catch( InterruptedException e )
+    {
+      throw new RuntimeException( e );
+    }
+  }
+}